@@ -40,12 +40,15 @@ import java.util.List;
 import java.util.Set;
 
 import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.strategoxt.HybridInterpreter;
 import org.sugarj.common.ATermCommands;
 import org.sugarj.common.Environment;
 import org.sugarj.common.FileCommands;
 import org.sugarj.common.StringCommands;
 import org.sugarj.common.path.Path;
 import org.sugarj.common.path.RelativePath;
+import org.sugarj.soundx.SXPrettyPrintTables;
+import org.sugarj.soundx.library.SoundXLibrary;
 
 /**
  * Sugar* language processor for SoundX base language definitions.
@@ -98,6 +101,12 @@ public class SXBldProcessor extends AbstractBaseProcessor {
 		return SXBldLanguage.getInstance();
 	}
 
+	@Override
+	public void setInterpreter(HybridInterpreter interp) {
+		super.setInterpreter(interp);
+		SoundXLibrary.register(interp);
+	}
+
 	@Override
 	public void init(Set<RelativePath> sourceFiles, Environment environment) {
 		if (sourceFiles.size() != 1)
@@ -175,9 +184,8 @@ public class SXBldProcessor extends AbstractBaseProcessor {
 
 	public String prettyPrint(IStrategoTerm term) {
 		if (ppTable == null)
-			ppTable = ATermCommands.readPrettyPrintTable(getLanguage()
-					.ensureFile("org/sugarj/languages/SXBld.pp")
-					.getAbsolutePath());
+			ppTable = SXPrettyPrintTables.get(getLanguage().ensureFile(
+					"org/sugarj/languages/SXBld.pp").getAbsolutePath());
 
 		return ATermCommands.prettyPrint(ppTable, term, interp);
 	}
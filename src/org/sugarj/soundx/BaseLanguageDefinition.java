@@ -31,27 +31,31 @@
 package org.sugarj.soundx;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.attribute.FileAttribute;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.spoofax.interpreter.terms.IStrategoInt;
 import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoString;
 import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
 import org.spoofax.jsglr.client.SGLR;
-import org.spoofax.jsglr.client.imploder.TreeBuilder;
 import org.spoofax.terms.StrategoAppl;
-import org.spoofax.terms.StrategoConstructor;
 import org.spoofax.terms.StrategoList;
 import org.spoofax.terms.StrategoString;
-import org.spoofax.terms.TermFactory;
 import org.strategoxt.HybridInterpreter;
 import org.strategoxt.lang.Context;
 import org.strategoxt.lang.compat.CompatLibrary;
@@ -72,7 +76,9 @@ import org.sugarj.driver.DriverParameters;
 import org.sugarj.driver.Result;
 import org.sugarj.driver.Result.CompilerMode;
 import org.sugarj.driver.SDFCommands;
+import org.sugarj.soundx.library.SXTerms;
 import org.sugarj.stdlib.StdLib;
+import org.sugarj.sxbld.Activator;
 import org.sugarj.util.Pair;
 
 /**
@@ -164,6 +170,15 @@ public class BaseLanguageDefinition {
 	/** Path of generated pretty printer table. */
 	private Path ppPath;
 
+	/** Path of the declarations extracted from the generated Stratego code. */
+	private Path declsPath;
+
+	/** Path of the manifest of the generated files. */
+	private Path manifestPath;
+
+	/** Hash identifying the SXBld implementation, see computeSxbldHash. */
+	private String sxbldHash;
+
 	/**
 	 * Processes a base language definition.
 	 * 
@@ -181,16 +196,30 @@ public class BaseLanguageDefinition {
 		bldPath.setBasePath(srcDir);
 		setBaseLanguageName();
 		setGeneratedFilePaths();
+		sxbldHash = computeSxbldHash();
 
-		if (generatedFilesOutdated()) {
+		SXBuildManifest manifest = new SXBuildManifest(manifestPath);
+		Set<Path> outdated = outdatedGeneratedFiles(manifest);
+		if (outdated.contains(sdfPath) || outdated.contains(strPath)) {
 			runCompiler();
-			postProcess(); // also extracts declarations from Stratego file
-			generateDefFile();
-			generatePPTable();
+			generateFiles(); // also extracts declarations from Stratego file
 		} else {
-			IStrategoTerm strTerm = parseStratego();
-			extractDeclarations(strTerm);
+			// the declarations are read from the sidecar file, parsing
+			// the generated Stratego code is only needed if it is outdated
+			if (outdated.contains(declsPath) || !readDeclarations()) {
+				IStrategoTerm strTerm = parseStratego();
+				extractDeclarations(strTerm);
+				writeDeclarations();
+			}
+			// the remaining files are generated independently of each other
+			if (outdated.contains(servPath))
+				generateEditorServices();
+			if (outdated.contains(defPath))
+				generateDefFile();
+			if (outdated.contains(ppPath))
+				generatePPTable(interp);
 		}
+		updateManifest(manifest);
 		blInstance.ensureFile(soundXStrFileName);
 		blInstance.ensureFile(soundXSdfFileName);
 		initSoundXBaseLanguage();
@@ -198,13 +227,23 @@ public class BaseLanguageDefinition {
 
 	/** Generate the def file from the sdf file. */
 	private void generateDefFile() {
+		String sdfText = null;
 		try {
-			FileCommands.writeToFile(defPath, "definition\n\n");
-			String sdfText = FileCommands.readFileAsString(sdfPath);
-			FileCommands.appendToFile(defPath, sdfText);
+			sdfText = FileCommands.readFileAsString(sdfPath);
 		} catch (Exception e) {
-			externalFail("write generated def file", e);
+			externalFail("read the post processed SDF code", e);
 		}
+		writeFile(defPath, defText(sdfText));
+	}
+
+	/**
+	 * Returns the content of the def file.
+	 *
+	 * @param sdfText
+	 *            the post processed SDF code
+	 */
+	private String defText(String sdfText) {
+		return "definition\n\n" + sdfText;
 	}
 
 	/**
@@ -237,6 +276,8 @@ public class BaseLanguageDefinition {
 		String servFileName = baseLanguageName + ".serv";
 		String defFileName = baseLanguageName + ".def";
 		String ppFileName = baseLanguageName + ".pp";
+		String declsFileName = baseLanguageName + ".decls";
+		String manifestFileName = baseLanguageName + ".manifest";
 		sdfPath = new AbsolutePath(binDir.getAbsolutePath() + File.separator
 				+ sdfFileName);
 		strPath = new AbsolutePath(binDir.getAbsolutePath() + File.separator
@@ -247,6 +288,10 @@ public class BaseLanguageDefinition {
 				+ defFileName);
 		ppPath = new AbsolutePath(binDir.getAbsolutePath() + File.separator
 				+ ppFileName);
+		declsPath = new AbsolutePath(binDir.getAbsolutePath() + File.separator
+				+ declsFileName);
+		manifestPath = new AbsolutePath(binDir.getAbsolutePath()
+				+ File.separator + manifestFileName);
 	}
 
 	/**
@@ -257,28 +302,94 @@ public class BaseLanguageDefinition {
 	}
 
 	/**
-	 * Post processes Sugar* generated sdf and str file.
+	 * Post processes the Sugar* generated sdf and str file and generates the
+	 * remaining files from them. The steps form a stage graph:
+	 *
+	 * - parse-str: parse the str file and extract the declarations
+	 * - parse-sdf: parse the sdf file
+	 * - str: post process the str file and print the declarations
+	 * - sdf: post process the sdf file (needs the toplevel nonterminal)
+	 * - def, pp: generate the def file and the pretty print table
+	 * - write: write all generated files
+	 *
+	 * The Stratego and SDF branches run concurrently, as do def and pp. The
+	 * stages pass terms and texts in memory, so no generated file is read or
+	 * parsed again, and each file is written once by the last stage.
 	 */
-	private void postProcess() {
-		postProcessStratego();
-		postProcessSdf();
+	private void generateFiles() {
+		final IStrategoTerm[] strTerm = new IStrategoTerm[1];
+		final IStrategoTerm[] sdfTerm = new IStrategoTerm[1];
+		final ConcurrentMap<Path, String> texts = new ConcurrentHashMap<Path, String>();
+		SXStageGraph graph = new SXStageGraph();
+		graph.add("parse-str", new SXStageGraph.Stage() {
+			@Override
+			public void run(HybridInterpreter interp) {
+				strTerm[0] = parseStratego();
+				extractDeclarations(strTerm[0]);
+			}
+		});
+		graph.add("parse-sdf", new SXStageGraph.Stage() {
+			@Override
+			public void run(HybridInterpreter interp) {
+				sdfTerm[0] = parseSdf();
+			}
+		});
+		graph.add("str", new SXStageGraph.Stage() {
+			@Override
+			public void run(HybridInterpreter interp) {
+				texts.put(strPath, postProcessStratego(strTerm[0], interp));
+				texts.put(declsPath, declarationsText());
+			}
+		}, "parse-str");
+		graph.add("sdf", new SXStageGraph.Stage() {
+			@Override
+			public void run(HybridInterpreter interp) {
+				sdfTerm[0] = postProcessSdf(sdfTerm[0], interp);
+				texts.put(sdfPath, ppSdf(sdfTerm[0], interp));
+			}
+		}, "parse-sdf", "parse-str");
+		graph.add("def", new SXStageGraph.Stage() {
+			@Override
+			public void run(HybridInterpreter interp) {
+				texts.put(defPath, defText(texts.get(sdfPath)));
+			}
+		}, "sdf");
+		graph.add("pp", new SXStageGraph.Stage() {
+			@Override
+			public void run(HybridInterpreter interp) {
+				texts.put(ppPath, ppTableText(sdfTerm[0], interp));
+			}
+		}, "sdf");
+		graph.add("write", new SXStageGraph.Stage() {
+			@Override
+			public void run(HybridInterpreter interp) {
+				for (Map.Entry<Path, String> e : texts.entrySet())
+					writeFile(e.getKey(), e.getValue());
+			}
+		}, "str", "def", "pp");
+		try {
+			graph.run("Generating " + baseLanguageName);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			externalFail("generating the files of the base language", e);
+		}
 	}
 
 	/**
 	 * Post process Sugar* generated str file. The imports are replaced by the
-	 * single import of the SoundX module. The declarations like the constructor
-	 * names for the language processor are extracted and stored.
-	 */
-	private void postProcessStratego() {
-		IStrategoTerm strTerm = parseStratego();
-		extractDeclarations(strTerm);
-		IStrategoTerm strTermImportsFixed = fixStrategoImports(strTerm);
-		String strString = ppStratego(strTermImportsFixed);
-		try {
-			FileCommands.writeToFile(strPath, strString);
-		} catch (Exception e) {
-			externalFail("write post processed Stratego code", e);
-		}
+	 * single import of the SoundX module.
+	 *
+	 * @param strTerm
+	 *            the syntax tree of the str file
+	 * @param interp
+	 *            interpreter for pretty printing
+	 * @return the post processed Stratego code
+	 */
+	private String postProcessStratego(IStrategoTerm strTerm,
+			HybridInterpreter interp) {
+		IStrategoTerm strTermImportsFixed = fixStrategoImports(strTerm, interp);
+		return ppStratego(strTermImportsFixed, interp);
 	}
 
 	/**
@@ -286,9 +397,13 @@ public class BaseLanguageDefinition {
 	 * 
 	 * @param term
 	 *            the STratego syntax tree
+	 * @param interp
+	 *            interpreter providing the term factory
 	 * @return the Stratego syntax tree with imports replaces
 	 */
-	private IStrategoTerm fixStrategoImports(IStrategoTerm term) {
+	private IStrategoTerm fixStrategoImports(IStrategoTerm term,
+			HybridInterpreter interp) {
+		ITermFactory f = interp.getFactory();
 		IStrategoTerm header = term.getSubterm(0);
 		IStrategoList decls = null;
 		if (term.getSubterm(1) instanceof IStrategoList)
@@ -306,23 +421,15 @@ public class BaseLanguageDefinition {
 				declsNoImports.addLast(decl);
 		}
 
-		declsNoImports.addFirst(ATermCommands
-				.atermFromString("Imports([Import(\"" + soundXModuleName
-						+ "\")])"));
-		StrategoList declsTerm = TermFactory.EMPTY_LIST;
-		for (Iterator<IStrategoTerm> i = declsNoImports.descendingIterator(); i
-				.hasNext();) {
-			IStrategoTerm declTerm = i.next();
-			declsTerm = new StrategoList(declTerm, declsTerm,
-					TermFactory.EMPTY_LIST, decls.getStorageType());
-		}
+		declsNoImports.addFirst(f.makeAppl(f.makeConstructor("Imports", 1),
+				f.makeList(f.makeAppl(f.makeConstructor("Import", 1),
+						f.makeString(soundXModuleName)))));
 
-		IStrategoTerm trm = new StrategoAppl(new StrategoConstructor("Module",
-				2), new IStrategoTerm[] { header, declsTerm },
-				term.getAnnotations(), term.getStorageType());
+		IStrategoTerm trm = f.makeAppl(f.makeConstructor("Module", 2), header,
+				f.makeList(declsNoImports));
 
-		return ATermCommands.atermFromString(trm.toString());
-		// without the to-and-from String the pretty printer crashes
+		return SXTerms.copy(f, trm);
+		// the pretty printer crashes on the parser's origin attachments
 	}
 
 	/**
@@ -371,6 +478,119 @@ public class BaseLanguageDefinition {
 		}
 	}
 
+	/**
+	 * Writes the declarations extracted by extractDeclarations to the
+	 * declarations file.
+	 */
+	private void writeDeclarations() {
+		writeFile(declsPath, declarationsText());
+	}
+
+	/**
+	 * Returns the declarations extracted by extractDeclarations as a single
+	 * ATerm:
+	 *
+	 * SXDeclarations(toplevel-nonterminal, ext-file-ext, base-file-ext,
+	 * (namespace-cons, index), namespace-kind, import-decs, body-decs,
+	 * namespace-suffices)
+	 */
+	private String declarationsText() {
+		ITermFactory f = interp.getFactory();
+		IStrategoTerm namespaceDec = f.makeTuple(
+				f.makeString(namespaceDecCons.a),
+				f.makeInt(namespaceDecCons.b));
+		IStrategoTerm kind;
+		if (namespaceKind instanceof SXNamespaceNested) {
+			char sep = ((SXNamespaceNested) namespaceKind).getSeparator();
+			kind = f.makeAppl(f.makeConstructor("SXNamespaceNested", 1),
+					f.makeString(String.valueOf(sep)));
+		} else if (namespaceKind instanceof SXNamespacePrefixed) {
+			char sep = ((SXNamespacePrefixed) namespaceKind).getSeparator();
+			kind = f.makeAppl(f.makeConstructor("SXNamespacePrefixed", 1),
+					f.makeString(String.valueOf(sep)));
+		} else
+			kind = f.makeAppl(f.makeConstructor("SXNamespaceFlat", 0));
+		List<IStrategoTerm> bodyDecs = new LinkedList<IStrategoTerm>();
+		for (String cons : bodyDecCons)
+			bodyDecs.add(f.makeString(cons));
+
+		IStrategoTerm decls = f.makeAppl(
+				f.makeConstructor("SXDeclarations", 8),
+				f.makeString(toplevelDeclarationNonterminal),
+				f.makeString(extFileExt), f.makeString(baseFileExt),
+				namespaceDec, kind, consIndexList(importDecCons),
+				f.makeList(bodyDecs), consIndexList(namespaceSuffices));
+		return decls.toString();
+	}
+
+	private IStrategoTerm consIndexList(Map<String, Integer> map) {
+		ITermFactory f = interp.getFactory();
+		List<IStrategoTerm> elems = new LinkedList<IStrategoTerm>();
+		for (Map.Entry<String, Integer> entry : map.entrySet())
+			elems.add(f.makeTuple(f.makeString(entry.getKey()),
+					f.makeInt(entry.getValue())));
+		return f.makeList(elems);
+	}
+
+	/**
+	 * Reads the declarations written by writeDeclarations.
+	 *
+	 * @return false if the declarations file is missing or malformed
+	 */
+	private boolean readDeclarations() {
+		IStrategoTerm decls;
+		try {
+			decls = ATermCommands.atermFromString(FileCommands
+					.readFileAsString(declsPath));
+		} catch (Exception e) {
+			return false;
+		}
+		if (!ATermCommands.isApplication(decls, "SXDeclarations")
+				|| decls.getSubtermCount() != 8)
+			return false;
+		try {
+			toplevelDeclarationNonterminal = stringValue(decls.getSubterm(0));
+			extFileExt = stringValue(decls.getSubterm(1));
+			baseFileExt = stringValue(decls.getSubterm(2));
+			IStrategoTerm namespaceDec = decls.getSubterm(3);
+			namespaceDecCons = new Pair<String, Integer>(
+					stringValue(namespaceDec.getSubterm(0)),
+					intValue(namespaceDec.getSubterm(1)));
+			IStrategoTerm kind = decls.getSubterm(4);
+			if (ATermCommands.isApplication(kind, "SXNamespaceNested"))
+				namespaceKind = new SXNamespaceNested(stringValue(
+						kind.getSubterm(0)).charAt(0));
+			else if (ATermCommands.isApplication(kind, "SXNamespacePrefixed"))
+				namespaceKind = new SXNamespacePrefixed(stringValue(
+						kind.getSubterm(0)).charAt(0));
+			else
+				namespaceKind = new SXNamespaceFlat();
+			for (IStrategoTerm elem : decls.getSubterm(5).getAllSubterms())
+				importDecCons.put(stringValue(elem.getSubterm(0)),
+						intValue(elem.getSubterm(1)));
+			for (IStrategoTerm elem : decls.getSubterm(6).getAllSubterms())
+				bodyDecCons.add(stringValue(elem));
+			for (IStrategoTerm elem : decls.getSubterm(7).getAllSubterms())
+				namespaceSuffices.put(stringValue(elem.getSubterm(0)),
+						intValue(elem.getSubterm(1)));
+		} catch (RuntimeException e) {
+			// a malformed file is regenerated
+			importDecCons.clear();
+			bodyDecCons.clear();
+			namespaceSuffices.clear();
+			return false;
+		}
+		return true;
+	}
+
+	private String stringValue(IStrategoTerm term) {
+		return ((IStrategoString) term).stringValue();
+	}
+
+	private int intValue(IStrategoTerm term) {
+		return ((IStrategoInt) term).intValue();
+	}
+
 	/**
 	 * Helper for extractDeclarations to extract sx-namespace-suffices.
 	 *
@@ -576,36 +796,64 @@ public class BaseLanguageDefinition {
 
 	/**
 	 * Generates pretty print table from base language grammar.
+	 *
+	 * @param interp
+	 *            interpreter to run the table generator
 	 */
-	private void generatePPTable() {
+	private void generatePPTable(HybridInterpreter interp) {
+		IStrategoTerm sdfTerm = parseSdf();
+		IStrategoTerm sdfTermFixed = null;
+		try {
+			sdfTermFixed = ATermCommands.fixSDF(sdfTerm, interp);
+			// without fixSDF, ppgenerate does not recognize the attributes
+		} catch (Exception e) {
+			externalFail("fixing the attributes of the SDF code", e);
+		}
+		writeFile(ppPath, ppTableText(sdfTermFixed, interp));
+	}
+
+	/**
+	 * Generates the pretty print table from a post processed SDF syntax tree.
+	 *
+	 * @param sdfTerm
+	 *            the SDF syntax tree, with attributes fixed by fixSDF
+	 * @param interp
+	 *            interpreter to run the table generator
+	 * @return the pretty print table
+	 */
+	private String ppTableText(IStrategoTerm sdfTerm, HybridInterpreter interp) {
 		Context ctx = interp.getCompiledContext();
 
 		ctx.addOperatorRegistry(new CompatLibrary());
 		// necessary because SSL_EXT_topdown_fput is not defined otherwise
 
-		IStrategoTerm sdfTerm = parseSdf();
+		String table = null;
 		try {
-			IStrategoTerm sdfTermFixed = ATermCommands.fixSDF(sdfTerm, interp);
-			// without fixSDF, ppgenerate does not recognize the attributes
-
-			IStrategoTerm result = ppgenerate_0_0.instance.invoke(ctx,
-					sdfTermFixed);
-			String table = ((StrategoString) pp_pp_table_0_0.instance.invoke(
-					ctx, result)).getName();
-			FileCommands.writeToFile(ppPath, table);
+			IStrategoTerm result = ppgenerate_0_0.instance.invoke(ctx, sdfTerm);
+			table = ((StrategoString) pp_pp_table_0_0.instance.invoke(ctx,
+					result)).getName();
 		} catch (Exception e) {
-			externalFail("generating and writing the pretty printer table", e);
+			externalFail("generating the pretty printer table", e);
 		}
+		return table;
 	}
 
 	/**
 	 * Post process SDF. Replace the imports by single import of SoundX module
 	 * and add the productions for ToplevelDeclaration.
+	 *
+	 * @param sdfTerm
+	 *            the syntax tree of the sdf file
+	 * @param interp
+	 *            interpreter for fixing the attributes
+	 * @return the post processed syntax tree
 	 */
-	private void postProcessSdf() {
-		IStrategoTerm sdfTerm = parseSdf();
-		IStrategoTerm sdfTermNoImports = fixSdfImports(sdfTerm);
-		IStrategoTerm sdfTermWithToplevelDec = fixSdfToplevelDec(sdfTermNoImports);
+	private IStrategoTerm postProcessSdf(IStrategoTerm sdfTerm,
+			HybridInterpreter interp) {
+		ITermFactory f = interp.getFactory();
+		IStrategoTerm sdfTermNoImports = fixSdfImports(sdfTerm, f);
+		IStrategoTerm sdfTermWithToplevelDec = fixSdfToplevelDec(
+				sdfTermNoImports, f);
 		IStrategoTerm sdfTermFixed = null;
 		try {
 			sdfTermFixed = ATermCommands.fixSDF(sdfTermWithToplevelDec, interp);
@@ -614,12 +862,7 @@ public class BaseLanguageDefinition {
 			externalFail("fixing the attributes of the post process SDF code",
 					e);
 		}
-		String sdfString = ppSdf(sdfTermFixed);
-		try {
-			FileCommands.writeToFile(sdfPath, sdfString);
-		} catch (Exception e) {
-			externalFail("writing the post processed SDF code", e);
-		}
+		return sdfTermFixed;
 	}
 
 	/**
@@ -628,21 +871,27 @@ public class BaseLanguageDefinition {
 	 * 
 	 * @param term
 	 *            the SDF syntax tree
+	 * @param f
+	 *            factory for the new terms
 	 * @return the SDF syntax tree with production added
 	 */
-	private IStrategoTerm fixSdfToplevelDec(IStrategoTerm term) {
+	private IStrategoTerm fixSdfToplevelDec(IStrategoTerm term, ITermFactory f) {
 		IStrategoTerm header = term.getSubterm(0);
 		IStrategoTerm imports = term.getSubterm(1);
-		StrategoList body = (StrategoList) term.getSubterm(2);
-		String cfSection = "exports(context-free-syntax([prod([sort(\""
-				+ baseLanguageName + "Gnd" + toplevelDeclarationNonterminal
-				+ "\")], sort(\"ToplevelDeclaration\"), no-attrs())]))";
-		IStrategoTerm cf = ATermCommands.atermFromString(cfSection);
-		IStrategoTerm newBody = new StrategoList(cf, body,
-				TermFactory.EMPTY_LIST, body.getStorageType());
-		return new StrategoAppl(new StrategoConstructor("module", 3),
-				new IStrategoTerm[] { header, imports, newBody },
-				term.getAnnotations(), term.getStorageType());
+		IStrategoList body = (IStrategoList) term.getSubterm(2);
+		IStrategoTerm prod = f.makeAppl(f.makeConstructor("prod", 3), f
+				.makeList(f.makeAppl(f.makeConstructor("sort", 1),
+						f.makeString(baseLanguageName + "Gnd"
+								+ toplevelDeclarationNonterminal))), f
+				.makeAppl(f.makeConstructor("sort", 1),
+						f.makeString("ToplevelDeclaration")), f.makeAppl(f
+				.makeConstructor("no-attrs", 0)));
+		IStrategoTerm cf = f.makeAppl(f.makeConstructor("exports", 1), f
+				.makeAppl(f.makeConstructor("context-free-syntax", 1),
+						f.makeList(prod)));
+		return f.annotateTerm(
+				f.makeAppl(f.makeConstructor("module", 3), header, imports,
+						f.makeListCons(cf, body)), term.getAnnotations());
 	}
 
 	/**
@@ -650,20 +899,20 @@ public class BaseLanguageDefinition {
 	 * 
 	 * @param term
 	 *            the SDF syntax tree
+	 * @param f
+	 *            factory for the new terms
 	 * @return the SDF syntax tree with imports replaced
 	 */
-	private IStrategoTerm fixSdfImports(IStrategoTerm term) {
+	private IStrategoTerm fixSdfImports(IStrategoTerm term, ITermFactory f) {
 		IStrategoTerm header = term.getSubterm(0);
 		IStrategoTerm body = term.getSubterm(2);
-		IStrategoTerm common = ATermCommands
-				.atermFromString("imports(module(unparameterized(\""
-						+ soundXModuleName + "\")))");
-		IStrategoTerm imports = new StrategoList(common,
-				TermFactory.EMPTY_LIST, TermFactory.EMPTY_LIST,
-				term.getStorageType());
-		return new StrategoAppl(new StrategoConstructor("module", 3),
-				new IStrategoTerm[] { header, imports, body },
-				term.getAnnotations(), term.getStorageType());
+		IStrategoTerm common = f.makeAppl(f.makeConstructor("imports", 1), f
+				.makeAppl(f.makeConstructor("module", 1), f.makeAppl(
+						f.makeConstructor("unparameterized", 1),
+						f.makeString(soundXModuleName))));
+		return f.annotateTerm(
+				f.makeAppl(f.makeConstructor("module", 3), header,
+						f.makeList(common), body), term.getAnnotations());
 	}
 
 	/**
@@ -701,10 +950,7 @@ public class BaseLanguageDefinition {
 	private IStrategoTerm parse(Path table, Path inputFile, String startSymbol) {
 		SGLR parser = null;
 		try {
-			parser = new SGLR(new TreeBuilder(),
-					ATermCommands.parseTableManager.loadFromFile(table
-							.getAbsolutePath()));
-			parser.setUseStructureRecovery(true);
+			parser = SXParseTables.getParser(table);
 		} catch (Exception e) {
 			externalFail(
 					"setting up a parser for the table "
@@ -715,8 +961,10 @@ public class BaseLanguageDefinition {
 
 		try {
 			String fileContent = FileCommands.readFileAsString(inputFile);
-			parseResult = parser.parseMax(fileContent,
-					sdfPath.getAbsolutePath(), startSymbol);
+			synchronized (parser) {
+				parseResult = parser.parseMax(fileContent,
+						sdfPath.getAbsolutePath(), startSymbol);
+			}
 		} catch (Exception e) {
 			externalFail("parsing the file " + inputFile.getAbsolutePath(), e);
 		}
@@ -730,9 +978,11 @@ public class BaseLanguageDefinition {
 	 * 
 	 * @param term
 	 *            the SDF syntax tree
+	 * @param interp
+	 *            interpreter for pretty printing
 	 * @return pretty printed SDF code
 	 */
-	private String ppSdf(IStrategoTerm term) {
+	private String ppSdf(IStrategoTerm term, HybridInterpreter interp) {
 		String result = null;
 		try {
 			result = SDFCommands.prettyPrintSDF(term, interp);
@@ -747,9 +997,11 @@ public class BaseLanguageDefinition {
 	 * 
 	 * @param term
 	 *            the Stratego syntax tree
+	 * @param interp
+	 *            interpreter for pretty printing
 	 * @return pretty printed Stratego code
 	 */
-	private String ppStratego(IStrategoTerm term) {
+	private String ppStratego(IStrategoTerm term, HybridInterpreter interp) {
 		String result = null;
 		try {
 			result = SDFCommands.prettyPrintSTR(term, interp);
@@ -780,6 +1032,148 @@ public class BaseLanguageDefinition {
 			return true;
 	}
 
+	/**
+	 * Determines the generated files that have to be regenerated. All of them
+	 * are outdated if the content of the base language definition or the
+	 * SXBld implementation has changed since the manifest was written.
+	 * Otherwise, the files that are missing or whose content differs from the
+	 * recorded hash are outdated.
+	 *
+	 * Without a manifest the modification times are compared as before.
+	 *
+	 * @return the outdated generated files
+	 */
+	private Set<Path> outdatedGeneratedFiles(SXBuildManifest manifest) {
+		Set<Path> generated = new HashSet<Path>();
+		generated.add(sdfPath);
+		generated.add(strPath);
+		generated.add(servPath);
+		generated.add(defPath);
+		generated.add(ppPath);
+		generated.add(declsPath);
+
+		if (manifest.isEmpty())
+			// a declarations file without manifest is not trusted
+			return generatedFilesOutdated() ? generated : Collections
+					.singleton(declsPath);
+		if (!manifest.matches("input", SXBuildManifest.hash(bldPath))
+				|| !manifest.matches("sxbld", sxbldHash))
+			return generated;
+
+		Set<Path> outdated = new HashSet<Path>();
+		for (Path path : generated)
+			if (!manifest.matches(manifestKey(path),
+					SXBuildManifest.hash(path)))
+				outdated.add(path);
+		return outdated;
+	}
+
+	/**
+	 * Records the hashes of the inputs and the generated files.
+	 */
+	private void updateManifest(SXBuildManifest manifest) {
+		manifest.put("input", SXBuildManifest.hash(bldPath));
+		manifest.put("sxbld", sxbldHash);
+		for (Path path : new Path[] { sdfPath, strPath, servPath, defPath,
+				ppPath, declsPath })
+			manifest.put(manifestKey(path), SXBuildManifest.hash(path));
+		try {
+			manifest.write();
+		} catch (Exception e) {
+			externalFail("writing the manifest of the generated files", e);
+		}
+	}
+
+	private String manifestKey(Path path) {
+		return new File(path.getAbsolutePath()).getName();
+	}
+
+	/**
+	 * Returns a hash identifying the SXBld implementation, which generates
+	 * the files from the base language definition. It covers the version of
+	 * the plugin and of SXBld, the SXBld grammar, all SXBld Stratego
+	 * modules, the SoundX modules they import (the whole org/sugarj/soundx
+	 * tree), and the SXBld syntax definition and signature. It reads all
+	 * these files, so it is computed once per call of process.
+	 */
+	private String computeSxbldHash() {
+		SXBldLanguage sxbld = SXBldLanguage.getInstance();
+		File transDir = new File(sxbld.getInitTrans().getAbsolutePath())
+				.getParentFile();
+		File grammar = new File(sxbld.getInitGrammar().getAbsolutePath());
+		File soundxDir = new File(sxbld.ensureFile(
+				"org/sugarj/soundx/SoundX.str").getAbsolutePath())
+				.getParentFile();
+		File sxbldDef = new File(sxbld.ensureFile(
+				"org/sugarj/languages/SXBld.def").getAbsolutePath());
+		File sxbldStr = new File(sxbld.ensureFile(
+				"org/sugarj/languages/SXBld.str").getAbsolutePath());
+		String version = sxbld.getVersion();
+		if (Activator.getDefault() != null)
+			version += " " + Activator.getDefault().getBundle().getVersion();
+		return SXTerms.digest(version, transDir, grammar, soundxDir,
+				sxbldDef, sxbldStr);
+	}
+
+	/**
+	 * Returns the Sugar* cache directory for compiling base language
+	 * definitions. The cache is kept in binDir/.sugarjcache/<hash> where
+	 * hash identifies the SXBld implementation, so Sugar* reuses the
+	 * compiled SXBld implementation and unchanged modules across runs and
+	 * a changed SoundX starts with an empty cache. Caches of other SXBld
+	 * implementations are deleted.
+	 */
+	private RelativePath compilerCacheDir() {
+		File cacheRoot = new File(binDir.getAbsolutePath(), ".sugarjcache");
+		File[] caches = cacheRoot.listFiles();
+		if (caches != null)
+			for (File cache : caches)
+				if (!cache.getName().equals(sxbldHash))
+					deleteRecursively(cache);
+		File cache = new File(cacheRoot, sxbldHash);
+		if (!cache.isDirectory() && !cache.mkdirs())
+			externalFail("creating the cache directory", new IOException(
+					"cannot create " + cache));
+		return new RelativePath(new AbsolutePath(cache.getAbsolutePath()),
+				"sugarjcache");
+	}
+
+	private static void deleteRecursively(File f) {
+		File[] children = f.listFiles();
+		if (children != null)
+			for (File child : children)
+				deleteRecursively(child);
+		f.delete();
+	}
+
+	/**
+	 * Writes the editor services file.
+	 */
+	private void generateEditorServices() {
+		// TODO generate proper editor services file here
+		String editorServicesHeader = "module " + baseLanguageName + "\n";
+		writeFile(servPath, editorServicesHeader);
+	}
+
+	/**
+	 * Writes a generated file with a single buffered write.
+	 *
+	 * @param path
+	 *            the file to write
+	 * @param text
+	 *            the content of the file
+	 */
+	private void writeFile(Path path, String text) {
+		File file = new File(path.getAbsolutePath());
+		file.getParentFile().mkdirs();
+		try (Writer writer = Files.newBufferedWriter(file.toPath(),
+				StandardCharsets.UTF_8)) {
+			writer.write(text);
+		} catch (IOException e) {
+			externalFail("writing the file " + path.getAbsolutePath(), e);
+		}
+	}
+
 	/**
 	 * Runs the Sugar* compiler with the sxbld language to generate the str and
 	 * sdf file from the base language definition.
@@ -790,17 +1184,10 @@ public class BaseLanguageDefinition {
 		Environment environment = new Environment(StdLib.stdLibDir,
 				Stamper.DEFAULT);
 
-		// Create a fresh cache directory. Otherwise, Sugar* will only reread
-		// the SXBld implementation when the version changes.
-		String tmpdir = null;
-		try {
-			tmpdir = Files.createTempDirectory("sugarj-soundx",
-					new FileAttribute[] {}).toString();
-		} catch (Exception e) {
-			externalFail("creating a temporary directory", e);
-		}
-		RelativePath cacheDir = new RelativePath(new AbsolutePath(tmpdir),
-				"sugarjcache");
+		// The cache directory depends on the content of the SXBld
+		// implementation. Otherwise, Sugar* would only reread the SXBld
+		// implementation when the version changes.
+		RelativePath cacheDir = compilerCacheDir();
 
 		environment.setCacheDir(cacheDir);
 		environment.setAtomicImportParsing(false);
@@ -811,12 +1198,11 @@ public class BaseLanguageDefinition {
 		try {
 			result = Driver.run(DriverParameters.create(environment, baseLang,
 					bldPath, monitor));
-			// TODO generate proper editor services file here
-			String editorServicesHeader = "module " + baseLanguageName + "\n";
-			FileCommands.writeToFile(servPath, editorServicesHeader);
 		} catch (Exception e) {
-			externalFail("writing the editor services file", e);
+			externalFail("running the Sugar* compiler on "
+					+ bldPath.getAbsolutePath(), e);
 		}
+		generateEditorServices();
 		// check for errors processing the base language definition
 		List<String> errors = result.getCollectedErrors();
 		if (errors.size() > 0) {
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.sugarj.BaseLanguageRegistry;
+import org.sugarj.cleardep.stamp.Stamper;
+import org.sugarj.common.Environment;
+import org.sugarj.common.Log;
+import org.sugarj.common.StringCommands;
+import org.sugarj.common.path.AbsolutePath;
+import org.sugarj.common.path.Path;
+import org.sugarj.common.path.RelativePath;
+import org.sugarj.driver.Result;
+import org.sugarj.driver.Result.CompilerMode;
+import org.sugarj.stdlib.StdLib;
+
+/**
+ * Command line entry point to compile the modules of a SoundX language with
+ * the SXBuildScheduler.
+ *
+ * Usage: SXBuild plugin-dir bld-file parse-table src-dir bin-dir cache-dir
+ * module...
+ *
+ * The base language definition bld-file is processed in plugin-dir as by
+ * the plugin activator of the language. The parse table of the base
+ * language is used to read the imports of the modules, which are given
+ * relative to src-dir.
+ */
+public class SXBuild {
+	private SXBuild() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 7) {
+			System.err.println("Usage: SXBuild plugin-dir bld-file "
+					+ "parse-table src-dir bin-dir cache-dir module...");
+			System.exit(2);
+		}
+		SoundXBaseLanguage language = new SoundXBaseLanguage();
+		language.processBaseLanguageDefinition(args[1], new AbsolutePath(
+				args[0]));
+		BaseLanguageRegistry.getInstance().registerBaseLanguage(language);
+
+		Path srcDir = new AbsolutePath(args[3]);
+		Environment environment = new Environment(StdLib.stdLibDir,
+				Stamper.DEFAULT);
+		environment.addToSourcePath(srcDir);
+		environment.setCacheDir(new RelativePath(new AbsolutePath(args[5]),
+				"sugarjcache"));
+		environment.setMode(new CompilerMode(new AbsolutePath(args[4]), false));
+
+		List<RelativePath> sourceFiles = new ArrayList<RelativePath>();
+		for (int i = 6; i < args.length; i++)
+			sourceFiles.add(new RelativePath(srcDir, args[i]));
+
+		SXBuildScheduler scheduler = new SXBuildScheduler(language,
+				environment, new AbsolutePath(args[2]));
+		boolean failed = false;
+		for (Map.Entry<RelativePath, Result> result : scheduler.build(
+				sourceFiles).entrySet()) {
+			List<String> errors = result.getValue().getCollectedErrors();
+			if (!errors.isEmpty()) {
+				failed = true;
+				Log.log.log(result.getKey().getRelativePath() + ":\n"
+						+ StringCommands.printListSeparated(errors, "\n"),
+						Log.ALWAYS);
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+}
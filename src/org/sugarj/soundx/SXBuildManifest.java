@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.path.Path;
+import org.sugarj.soundx.library.SXTerms;
+
+/**
+ * Manifest of the files generated from a base language definition. It
+ * records content hashes of the inputs (the base language definition and
+ * the SXBld implementation) and of each generated file, so staleness does
+ * not depend on modification times. Each line of the manifest file has the
+ * form "key hash".
+ */
+public class SXBuildManifest {
+	private final Path file;
+	private final Map<String, String> hashes = new TreeMap<String, String>();
+	private boolean changed = false;
+
+	/**
+	 * Creates a manifest stored in the given file and reads the hashes
+	 * recorded there. A missing or unreadable file gives an empty manifest.
+	 */
+	public SXBuildManifest(Path file) {
+		this.file = file;
+		if (!FileCommands.fileExists(file))
+			return;
+		try {
+			for (String line : FileCommands.readFileAsString(file).split("\n")) {
+				String[] entry = line.split(" ");
+				if (entry.length == 2)
+					hashes.put(entry[0], entry[1]);
+			}
+		} catch (IOException e) {
+			hashes.clear();
+		}
+	}
+
+	public boolean isEmpty() {
+		return hashes.isEmpty();
+	}
+
+	/**
+	 * Checks if the recorded hash for the key equals the given hash.
+	 */
+	public boolean matches(String key, String hash) {
+		return hash != null && hash.equals(hashes.get(key));
+	}
+
+	public void put(String key, String hash) {
+		if (hash != null && !hash.equals(hashes.put(key, hash)))
+			changed = true;
+	}
+
+	/**
+	 * Writes the manifest file if any hash has changed.
+	 */
+	public void write() throws IOException {
+		if (!changed)
+			return;
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, String> entry : hashes.entrySet())
+			text.append(entry.getKey()).append(' ').append(entry.getValue())
+					.append('\n');
+		FileCommands.writeToFile(file, text.toString());
+		changed = false;
+	}
+
+	/**
+	 * Returns the content hash of a file or null if it does not exist.
+	 */
+	public static String hash(Path path) {
+		if (!FileCommands.fileExists(path))
+			return null;
+		try {
+			return SXTerms.digest(FileCommands.readFileAsString(path));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
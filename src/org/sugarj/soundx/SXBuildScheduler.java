@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.jsglr.client.SGLR;
+import org.strategoxt.HybridInterpreter;
+import org.sugarj.common.Environment;
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.Log;
+import org.sugarj.common.path.Path;
+import org.sugarj.common.path.RelativePath;
+import org.sugarj.driver.Driver;
+import org.sugarj.driver.DriverParameters;
+import org.sugarj.driver.Result;
+import org.sugarj.soundx.library.SXInterfaceCache;
+
+/**
+ * Compiles a set of modules of a SoundX base language in parallel.
+ *
+ * The scheduler reads the import declarations of each source file with the
+ * parse table of the base language, resolves the imports with
+ * getModulePathOfImport and builds the dependency graph of the modules. A
+ * module is compiled by its own Sugar* driver run (with its own processor
+ * and interpreter) as soon as all modules it imports have been compiled, so
+ * independent modules are compiled concurrently.
+ *
+ * The imports of a module are only known if the whole file parses with the
+ * table of the base language. A module using extension syntax or with a
+ * syntax error may import more modules than found, so it is compiled after
+ * all concurrent driver runs have finished, as are the modules importing it
+ * and the modules on an import cycle. These are compiled one after the
+ * other, Sugar* compiles their dependencies and resolves cycles itself.
+ *
+ * The interface cache is shared by all modules of a build.
+ *
+ * Imported modules that are not part of the set but whose source file is
+ * found on the source path are added to the build, so Sugar* never
+ * compiles them as a dependency of a concurrent driver run. Imports whose
+ * source file is not found are loaded by Sugar* as usual.
+ *
+ * Concurrent driver runs share the environment and its cache directory.
+ * No two concurrent runs compile the same module, and no run compiles a
+ * module that a running module imports, so the runs write disjoint files.
+ * This relies on the driver not modifying the environment during a run and
+ * keeping its other state per run; modules whose dependencies the scheduler
+ * cannot determine are compiled sequentially for the same reason.
+ */
+public class SXBuildScheduler {
+	private final SoundXBaseLanguage language;
+	private final Environment environment;
+	private final Path parseTable;
+	private final int threads;
+
+	/**
+	 * @param language
+	 *            the base language of the modules
+	 * @param environment
+	 *            the Sugar* environment for all driver runs
+	 * @param parseTable
+	 *            parse table of the base language, used to read the import
+	 *            declarations
+	 * @param threads
+	 *            number of modules compiled at the same time
+	 */
+	public SXBuildScheduler(SoundXBaseLanguage language,
+			Environment environment, Path parseTable, int threads) {
+		this.language = language;
+		this.environment = environment;
+		this.parseTable = parseTable;
+		this.threads = threads;
+	}
+
+	public SXBuildScheduler(SoundXBaseLanguage language,
+			Environment environment, Path parseTable) {
+		this(language, environment, parseTable, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Compiles all source files and the imported modules found on the source
+	 * path and returns the Sugar* result of each one.
+	 * If a driver run fails, no more modules are started, the modules
+	 * still running are waited for and the failure is rethrown.
+	 */
+	public Map<RelativePath, Result> build(Collection<RelativePath> sourceFiles)
+			throws IOException, InterruptedException, ExecutionException {
+		Map<RelativePath, Set<RelativePath>> imports = readImports(sourceFiles);
+		Collection<RelativePath> modules = imports.keySet();
+
+		// number of uncompiled imports and reverse edges
+		Map<RelativePath, Integer> pending = new HashMap<RelativePath, Integer>();
+		Map<RelativePath, List<RelativePath>> importedBy = new HashMap<RelativePath, List<RelativePath>>();
+		for (RelativePath sourceFile : modules) {
+			// modules with unknown imports never become ready
+			pending.put(sourceFile, imports.get(sourceFile) == null ? -1
+					: imports.get(sourceFile).size());
+			importedBy.put(sourceFile, new LinkedList<RelativePath>());
+		}
+		for (RelativePath sourceFile : modules)
+			if (imports.get(sourceFile) != null)
+				for (RelativePath imported : imports.get(sourceFile))
+					importedBy.get(imported).add(sourceFile);
+
+		Map<RelativePath, Result> results = new LinkedHashMap<RelativePath, Result>();
+		SXInterfaceCache.getInstance().beginBuild();
+		try {
+			compile(modules, pending, importedBy, results);
+		} finally {
+			SXInterfaceCache.getInstance().endBuild();
+		}
+		return results;
+	}
+
+	private void compile(Collection<RelativePath> sourceFiles,
+			Map<RelativePath, Integer> pending,
+			Map<RelativePath, List<RelativePath>> importedBy,
+			Map<RelativePath, Result> results) throws InterruptedException,
+			ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			CompletionService<Result> completion = new ExecutorCompletionService<Result>(
+					executor);
+			Map<Future<Result>, RelativePath> running = new HashMap<Future<Result>, RelativePath>();
+			for (RelativePath sourceFile : sourceFiles)
+				if (pending.get(sourceFile) == 0)
+					running.put(completion.submit(compileTask(sourceFile)),
+							sourceFile);
+
+			while (!running.isEmpty()) {
+				Future<Result> done = completion.take();
+				RelativePath sourceFile = running.remove(done);
+				results.put(sourceFile, done.get());
+				for (RelativePath importing : importedBy.get(sourceFile)) {
+					int count = pending.get(importing) - 1;
+					pending.put(importing, count);
+					if (count == 0)
+						running.put(completion.submit(compileTask(importing)),
+								importing);
+				}
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		// modules with unknown imports, depending on those, or on import
+		// cycles never become ready
+		for (RelativePath sourceFile : sourceFiles)
+			if (!results.containsKey(sourceFile))
+				try {
+					results.put(sourceFile, compileTask(sourceFile).call());
+				} catch (Exception e) {
+					throw new ExecutionException(e);
+				}
+	}
+
+	private Callable<Result> compileTask(final RelativePath sourceFile) {
+		return new Callable<Result>() {
+			@Override
+			public Result call() throws Exception {
+				return Driver.run(DriverParameters.create(environment,
+						language, sourceFile, new NullProgressMonitor()));
+			}
+		};
+	}
+
+	/**
+	 * Maps each source file to the source files it imports, or to null if
+	 * its imports are not known. Imported modules found on the source path
+	 * are added as source files, in the order they are found.
+	 */
+	private Map<RelativePath, Set<RelativePath>> readImports(
+			Collection<RelativePath> sourceFiles) throws IOException {
+		Map<String, RelativePath> byModulePath = new HashMap<String, RelativePath>();
+		for (RelativePath sourceFile : sourceFiles)
+			byModulePath.put(
+					FileCommands.dropExtension(sourceFile.getRelativePath()),
+					sourceFile);
+
+		SGLR parser;
+		try {
+			parser = SXParseTables.getParser(parseTable);
+		} catch (Exception e) {
+			throw new IOException("cannot load parse table "
+					+ parseTable.getAbsolutePath(), e);
+		}
+		SoundXBaseProcessor processor = language.createNewProcessor();
+		processor.setInterpreter(new HybridInterpreter());
+
+		Map<RelativePath, Set<RelativePath>> imports = new LinkedHashMap<RelativePath, Set<RelativePath>>();
+		LinkedList<RelativePath> worklist = new LinkedList<RelativePath>(
+				sourceFiles);
+		while (!worklist.isEmpty()) {
+			RelativePath sourceFile = worklist.removeFirst();
+			if (imports.containsKey(sourceFile))
+				continue;
+			List<IStrategoTerm> importDecls = readImportDecls(parser,
+					sourceFile);
+			if (importDecls == null) {
+				Log.log.log("Imports of " + sourceFile.getRelativePath()
+						+ " unknown, compiling it sequentially", Log.ALWAYS);
+				imports.put(sourceFile, null);
+				continue;
+			}
+			Set<RelativePath> imported = new LinkedHashSet<RelativePath>();
+			for (IStrategoTerm decl : importDecls) {
+				String modulePath = processor.getModulePathOfImport(decl);
+				RelativePath importedFile = byModulePath.get(modulePath);
+				if (importedFile == null) {
+					importedFile = findSourceFile(modulePath);
+					if (importedFile == null)
+						continue;
+					byModulePath.put(modulePath, importedFile);
+					worklist.add(importedFile);
+				}
+				if (!importedFile.equals(sourceFile))
+					imported.add(importedFile);
+			}
+			imports.put(sourceFile, imported);
+		}
+		return imports;
+	}
+
+	/**
+	 * Returns the source file of a module on the source path or null if
+	 * there is none.
+	 */
+	private RelativePath findSourceFile(String modulePath) {
+		for (Path base : environment.getSourcePath()) {
+			RelativePath sourceFile = new RelativePath(base, modulePath + "."
+					+ language.getSugarFileExtension());
+			if (FileCommands.fileExists(sourceFile))
+				return sourceFile;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the toplevel declarations of a source file and returns its
+	 * import declarations. Returns null if the file cannot be parsed to
+	 * the end with the table of the base language, for example since it
+	 * uses syntax of imported extensions. Then an import may follow that
+	 * has not been seen.
+	 */
+	private List<IStrategoTerm> readImportDecls(SGLR parser,
+			RelativePath sourceFile) throws IOException {
+		List<IStrategoTerm> importDecls = new LinkedList<IStrategoTerm>();
+		String input = FileCommands.readFileAsString(sourceFile);
+		while (!input.trim().isEmpty()) {
+			Object[] parseResult;
+			try {
+				synchronized (parser) {
+					parseResult = (Object[]) parser.parseMax(input,
+							sourceFile.getAbsolutePath(), "ToplevelDeclaration");
+				}
+			} catch (Exception e) {
+				return null;
+			}
+			IStrategoTerm decl = (IStrategoTerm) parseResult[0];
+			if (language.isImportDecl(decl))
+				importDecls.add(decl);
+			if (parseResult.length < 2 || !(parseResult[1] instanceof String))
+				return null;
+			String rest = (String) parseResult[1];
+			if (rest.length() >= input.length())
+				return null;
+			input = rest;
+		}
+		return importDecls;
+	}
+}
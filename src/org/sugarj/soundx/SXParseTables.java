@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.spoofax.jsglr.client.SGLR;
+import org.spoofax.jsglr.client.imploder.TreeBuilder;
+import org.sugarj.common.ATermCommands;
+import org.sugarj.common.Log;
+import org.sugarj.common.path.Path;
+import org.sugarj.soundx.library.SXTerms;
+
+/**
+ * Process-wide cache of SGLR parsers for parse tables. A parser is created
+ * once per parse table and shared by all base language definitions of the
+ * process. The cache is keyed by the absolute path and the content hash of
+ * the table, so a changed table is loaded again. The table is only hashed
+ * if its modification time or size differ from the cached entry.
+ *
+ * Parsers are not thread-safe, so callers synchronize on the parser while
+ * parsing. Each load is logged with the time spent loading tables and
+ * the number of cache hits so far.
+ */
+public class SXParseTables {
+	private static class Entry {
+		long lastModified;
+		long length;
+		final String hash;
+		final SGLR parser;
+
+		Entry(long lastModified, long length, String hash, SGLR parser) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.hash = hash;
+			this.parser = parser;
+		}
+	}
+
+	private static final Map<String, Entry> parsers = new HashMap<String, Entry>();
+
+	private static long hits = 0;
+	private static long loads = 0;
+	private static long loadNanos = 0;
+
+	private SXParseTables() {
+	}
+
+	/**
+	 * Returns the parser for a table, loading the table if it is not cached
+	 * or its content has changed.
+	 */
+	public static synchronized SGLR getParser(Path table) throws Exception {
+		String path = table.getAbsolutePath();
+		File file = new File(path);
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Entry entry = parsers.get(path);
+		if (entry != null && entry.lastModified == lastModified
+				&& entry.length == length) {
+			hits++;
+			return entry.parser;
+		}
+
+		String hash = SXTerms.digest(Files.readAllBytes(file.toPath()));
+		if (entry != null && entry.hash.equals(hash)) {
+			// touched but unchanged
+			entry.lastModified = lastModified;
+			entry.length = length;
+			hits++;
+			return entry.parser;
+		}
+
+		long start = System.nanoTime();
+		SGLR parser = new SGLR(new TreeBuilder(),
+				ATermCommands.parseTableManager.loadFromFile(path));
+		parser.setUseStructureRecovery(true);
+		long elapsed = System.nanoTime() - start;
+		parsers.put(path, new Entry(lastModified, length, hash, parser));
+		loads++;
+		loadNanos += elapsed;
+		Log.log.log("Loaded parse table " + path + " in " + elapsed / 1000000
+				+ " ms (" + loads + " loads in " + loadNanos / 1000000
+				+ " ms, " + hits + " cache hits)", Log.ALWAYS);
+		return parser;
+	}
+
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	public static synchronized long getLoads() {
+		return loads;
+	}
+
+	/**
+	 * Returns the total time spent loading parse tables in milliseconds.
+	 */
+	public static synchronized long getLoadMillis() {
+		return loadNanos / 1000000;
+	}
+}
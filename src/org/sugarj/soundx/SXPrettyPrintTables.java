@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.sugarj.common.ATermCommands;
+import org.sugarj.common.Log;
+
+/**
+ * Process-wide cache of parsed pretty-print tables. Since Sugar* creates a
+ * new processor for each compiled file, the processors get their table from
+ * here instead of reading it themselves. A table is keyed by its absolute
+ * path and is read again if the modification time of the file changes.
+ *
+ * Each miss is logged together with the number of hits and misses so far,
+ * so a bulk build should log each table once.
+ */
+public class SXPrettyPrintTables {
+	private static class Entry {
+		final long lastModified;
+		final IStrategoTerm table;
+
+		Entry(long lastModified, IStrategoTerm table) {
+			this.lastModified = lastModified;
+			this.table = table;
+		}
+	}
+
+	private static final ConcurrentMap<String, Entry> tables = new ConcurrentHashMap<String, Entry>();
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	private SXPrettyPrintTables() {
+	}
+
+	/**
+	 * Returns the parsed pretty-print table stored at the given absolute
+	 * path.
+	 */
+	public static IStrategoTerm get(String path) {
+		long lastModified = new File(path).lastModified();
+		Entry entry = tables.get(path);
+		if (entry != null && entry.lastModified == lastModified) {
+			hits.incrementAndGet();
+			return entry.table;
+		}
+		synchronized (SXPrettyPrintTables.class) {
+			// another processor may have read the table in the meantime
+			entry = tables.get(path);
+			if (entry != null && entry.lastModified == lastModified) {
+				hits.incrementAndGet();
+				return entry.table;
+			}
+			entry = new Entry(lastModified,
+					ATermCommands.readPrettyPrintTable(path));
+			tables.put(path, entry);
+			misses.incrementAndGet();
+		}
+		Log.log.log("Loaded pretty-print table " + path + " (" + getHits()
+				+ " hits, " + getMisses() + " misses)", Log.ALWAYS);
+		return entry.table;
+	}
+
+	public static long getHits() {
+		return hits.get();
+	}
+
+	public static long getMisses() {
+		return misses.get();
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.strategoxt.HybridInterpreter;
+import org.sugarj.common.Log;
+import org.sugarj.common.StringCommands;
+
+/**
+ * A graph of stages that depend on each other. Each stage runs on its own
+ * thread with its own Stratego interpreter as soon as the stages it depends
+ * on have finished, so independent stages run concurrently. After all
+ * stages have finished the time of each stage is logged.
+ */
+public class SXStageGraph {
+	/**
+	 * A stage of the graph.
+	 */
+	public interface Stage {
+		void run(HybridInterpreter interp) throws Exception;
+	}
+
+	private static class Node {
+		final Stage stage;
+		final String[] dependencies;
+		Future<Long> result;
+
+		Node(Stage stage, String[] dependencies) {
+			this.stage = stage;
+			this.dependencies = dependencies;
+		}
+	}
+
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+	/**
+	 * Adds a stage. The stages it depends on must have been added before.
+	 */
+	public void add(String name, Stage stage, String... dependencies) {
+		for (String dependency : dependencies)
+			if (!nodes.containsKey(dependency))
+				throw new IllegalArgumentException("Stage " + name
+						+ " depends on unknown stage " + dependency);
+		nodes.put(name, new Node(stage, dependencies));
+	}
+
+	/**
+	 * Runs all stages and waits for them. If a stage fails, the stages
+	 * depending on it fail as well and the exception of the failed stage
+	 * is rethrown.
+	 *
+	 * @param description
+	 *            description of the whole graph for the timing report
+	 */
+	public void run(String description) throws Exception {
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(nodes.size());
+		try {
+			for (Node node : nodes.values())
+				node.result = executor.submit(task(node));
+			for (Node node : nodes.values())
+				node.result.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			executor.shutdown();
+		}
+
+		List<String> report = new ArrayList<String>();
+		for (Map.Entry<String, Node> entry : nodes.entrySet())
+			report.add(entry.getKey() + " " + entry.getValue().result.get()
+					/ 1000000 + " ms");
+		Log.log.log(description + " took " + (System.nanoTime() - start)
+				/ 1000000 + " ms ("
+				+ StringCommands.printListSeparated(report, ", ") + ")",
+				Log.ALWAYS);
+	}
+
+	/**
+	 * Returns a task that waits for the dependencies of the node, runs its
+	 * stage and returns the time the stage took.
+	 */
+	private Callable<Long> task(final Node node) {
+		final List<Future<Long>> dependencies = new ArrayList<Future<Long>>();
+		for (String dependency : node.dependencies)
+			dependencies.add(nodes.get(dependency).result);
+		return new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				for (Future<Long> dependency : dependencies)
+					dependency.get();
+				long start = System.nanoTime();
+				node.stage.run(new HybridInterpreter());
+				return System.nanoTime() - start;
+			}
+		};
+	}
+}
@@ -32,6 +32,7 @@ package org.sugarj.soundx;
 
 import static org.sugarj.common.ATermCommands.isApplication;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -43,6 +44,8 @@ import org.spoofax.terms.StrategoAppl;
 import org.sugarj.AbstractBaseLanguage;
 import org.sugarj.common.Log;
 import org.sugarj.common.path.Path;
+import org.sugarj.soundx.library.SXTerms;
+import org.sugarj.sxbld.Activator;
 import org.sugarj.util.Pair;
 
 /**
@@ -120,6 +123,25 @@ public class SoundXBaseLanguage extends AbstractBaseLanguage {
 		this.namespaceKind = namespaceKind;
 	}
 
+	private String implementationHash;
+
+	/**
+	 * Returns a hash identifying the SoundX implementation, that is the
+	 * plugin version and the SoundX Stratego modules. It is computed once per
+	 * language.
+	 */
+	public synchronized String getImplementationHash() {
+		if (implementationHash == null) {
+			File soundXDir = new File(ensureFile("org/sugarj/soundx/SoundX.str")
+					.getAbsolutePath()).getParentFile();
+			String version = getVersion();
+			if (Activator.getDefault() != null)
+				version += " " + Activator.getDefault().getBundle().getVersion();
+			implementationHash = SXTerms.digest(version, soundXDir);
+		}
+		return implementationHash;
+	}
+
 	public SoundXBaseLanguage() {
 	}
 
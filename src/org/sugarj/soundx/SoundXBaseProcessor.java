@@ -45,6 +45,7 @@ import java.util.Set;
 import org.spoofax.interpreter.terms.IStrategoTerm;
 import org.spoofax.terms.StrategoAppl;
 import org.spoofax.terms.TermFactory;
+import org.strategoxt.HybridInterpreter;
 import org.sugarj.AbstractBaseProcessor;
 import org.sugarj.common.ATermCommands;
 import org.sugarj.common.Environment;
@@ -52,6 +53,9 @@ import org.sugarj.common.FileCommands;
 import org.sugarj.common.StringCommands;
 import org.sugarj.common.path.Path;
 import org.sugarj.common.path.RelativePath;
+import org.sugarj.soundx.library.SXClassificationCache;
+import org.sugarj.soundx.library.SXInterfaceCache;
+import org.sugarj.soundx.library.SoundXLibrary;
 import org.sugarj.util.Pair;
 
 /**
@@ -114,6 +118,12 @@ public class SoundXBaseProcessor extends AbstractBaseProcessor {
 		return language;
 	}
 
+	@Override
+	public void setInterpreter(HybridInterpreter interp) {
+		super.setInterpreter(interp);
+		SoundXLibrary.register(interp);
+	}
+
 	@Override
 	public void init(Set<RelativePath> sourceFiles, Environment environment) {
 		if (sourceFiles.size() != 1)
@@ -125,6 +135,12 @@ public class SoundXBaseProcessor extends AbstractBaseProcessor {
 		String srcExt = "." + getLanguage().getBaseFileExtension() + "-src";
 		outFile = environment.createOutPath(FileCommands
 				.dropExtension(sourceFile.getRelativePath()) + srcExt);
+
+		Path cacheDir = environment.getCacheDir();
+		SXClassificationCache.getInstance().setDirectory(
+				cacheDir == null ? null : new File(cacheDir.getAbsolutePath()),
+				getLanguage().getImplementationHash());
+		SXInterfaceCache.getInstance().beginModule();
 	}
 
 	private void processNamespaceDecl(IStrategoTerm toplevelDecl) {
@@ -304,8 +320,8 @@ public class SoundXBaseProcessor extends AbstractBaseProcessor {
 
 	public String prettyPrint(IStrategoTerm term) {
 		if (ppTable == null)
-			ppTable = ATermCommands.readPrettyPrintTable(getLanguage()
-					.getPpTable().getAbsolutePath());
+			ppTable = SXPrettyPrintTables.get(getLanguage().getPpTable()
+					.getAbsolutePath());
 
 		return ATermCommands.prettyPrint(ppTable, term, interp);
 	}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Answer table of the depth-first engine in tabling mode. It maps ground
+ * goals to their derivation or to a failure marker. The answers depend on
+ * the assumptions and the inference rules, so both are part of the key.
+ * The rules are identified by the id of their rule index.
+ */
+public class SXAnswerTable {
+	private static class Key {
+		final int rulesId;
+		final IStrategoTerm asms;
+		final IStrategoTerm goal;
+		final int hash;
+
+		Key(int rulesId, IStrategoTerm asms, IStrategoTerm goal) {
+			this.rulesId = rulesId;
+			this.asms = asms;
+			this.goal = goal;
+			hash = (31 * rulesId + asms.hashCode()) * 31 + goal.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash && rulesId == other.rulesId
+					&& goal.equals(other.goal) && asms.equals(other.asms);
+		}
+	}
+
+	private final Map<Key, IStrategoTerm> answers = new HashMap<Key, IStrategoTerm>();
+
+	public synchronized IStrategoTerm lookup(int rulesId, IStrategoTerm asms,
+			IStrategoTerm goal) {
+		return answers.get(new Key(rulesId, asms, goal));
+	}
+
+	public synchronized void store(int rulesId, IStrategoTerm asms,
+			IStrategoTerm goal, IStrategoTerm answer) {
+		answers.put(new Key(rulesId, asms, goal), answer);
+	}
+
+	public synchronized void clear() {
+		answers.clear();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Frontier of the breadth-first error search. It keeps the queue of goal
+ * lists in an array deque and remembers all goal lists that have been
+ * queued up to renaming of metavariables, so a goal list is expanded at most
+ * once. The events of the search (goal markers and errors) are recorded in
+ * the order they occur.
+ *
+ * If the queue contains more goal lists than the frontier budget allows,
+ * new goal lists are dropped.
+ */
+public class SXBfsFrontier extends SXBlobTerm {
+	private static final long serialVersionUID = -3526216066283813374L;
+
+	private final ITermFactory factory;
+	private final int budget;
+	private final ArrayDeque<IStrategoTerm> queue = new ArrayDeque<IStrategoTerm>();
+	private final Set<IStrategoTerm> visited = new HashSet<IStrategoTerm>();
+	private final List<IStrategoTerm> events = new ArrayList<IStrategoTerm>();
+
+	public SXBfsFrontier(ITermFactory factory, int budget) {
+		super(IStrategoTerm.MUTABLE);
+		this.factory = factory;
+		this.budget = budget;
+	}
+
+	/**
+	 * Adds a goal list at the end of the queue unless a variant of it has
+	 * been queued before or the budget is exhausted.
+	 */
+	public synchronized void offer(IStrategoTerm goals) {
+		if (queue.size() >= budget)
+			return;
+		if (visited.add(SXTerms.canonicalize(factory, goals)))
+			queue.addLast(goals);
+	}
+
+	/**
+	 * Removes the first goal list from the queue. Returns null if the queue
+	 * is empty.
+	 */
+	public synchronized IStrategoTerm poll() {
+		return queue.pollFirst();
+	}
+
+	public synchronized void record(IStrategoTerm event) {
+		events.add(event);
+	}
+
+	public synchronized IStrategoList getEvents() {
+		return factory.makeList(events.toArray(new IStrategoTerm[events.size()]));
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Primitives to manipulate the frontier of the breadth-first error search.
+ */
+public class SXBfsPrimitives {
+	private SXBfsPrimitives() {
+	}
+
+	private static SXBfsFrontier frontier(IStrategoTerm term) {
+		return term instanceof SXBfsFrontier ? (SXBfsFrontier) term : null;
+	}
+
+	/**
+	 * Creates a frontier containing the current goal list. The term argument
+	 * is the frontier budget.
+	 */
+	private static class New extends AbstractPrimitive {
+		New() {
+			super("SUGARJ_sx_bfs_frontier", 0, 1);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			if (tvars[0].getTermType() != IStrategoTerm.INT)
+				return false;
+			SXBfsFrontier frontier = new SXBfsFrontier(env.getFactory(),
+					((IStrategoInt) tvars[0]).intValue());
+			frontier.offer(env.current());
+			env.setCurrent(frontier);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the next goal list from the current frontier. Fails if the
+	 * frontier is empty.
+	 */
+	private static class Poll extends AbstractPrimitive {
+		Poll() {
+			super("SUGARJ_sx_bfs_poll", 0, 0);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			SXBfsFrontier frontier = frontier(env.current());
+			if (frontier == null)
+				return false;
+			IStrategoTerm goals = frontier.poll();
+			if (goals == null)
+				return false;
+			env.setCurrent(goals);
+			return true;
+		}
+	}
+
+	/**
+	 * Adds the current goal list to the frontier passed as term argument.
+	 */
+	private static class Offer extends AbstractPrimitive {
+		Offer() {
+			super("SUGARJ_sx_bfs_offer", 0, 1);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			SXBfsFrontier frontier = frontier(tvars[0]);
+			if (frontier == null)
+				return false;
+			frontier.offer(env.current());
+			return true;
+		}
+	}
+
+	/**
+	 * Records the current event in the frontier passed as term argument.
+	 */
+	private static class Record extends AbstractPrimitive {
+		Record() {
+			super("SUGARJ_sx_bfs_record", 0, 1);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			SXBfsFrontier frontier = frontier(tvars[0]);
+			if (frontier == null)
+				return false;
+			frontier.record(env.current());
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the recorded events of the current frontier in the order they
+	 * occurred.
+	 */
+	private static class Events extends AbstractPrimitive {
+		Events() {
+			super("SUGARJ_sx_bfs_events", 0, 0);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			SXBfsFrontier frontier = frontier(env.current());
+			if (frontier == null)
+				return false;
+			env.setCurrent(frontier.getEvents());
+			return true;
+		}
+	}
+
+	/**
+	 * Registers the frontier primitives with the library.
+	 */
+	public static void addTo(SoundXLibrary library) {
+		library.add(new New());
+		library.add(new Poll());
+		library.add(new Offer());
+		library.add(new Record());
+		library.add(new Events());
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.io.IOException;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermPrinter;
+import org.spoofax.terms.StrategoTerm;
+
+/**
+ * Base class of Java objects that are passed through Stratego code as blob
+ * terms. Blobs have no subterms and are equal only to themselves unless a
+ * subclass decides otherwise.
+ */
+public abstract class SXBlobTerm extends StrategoTerm {
+	private static final long serialVersionUID = -4727196530858317006L;
+
+	private static final IStrategoTerm[] NO_SUBTERMS = new IStrategoTerm[0];
+
+	protected SXBlobTerm(int storageType) {
+		super(null, storageType);
+	}
+
+	@Override
+	public int getTermType() {
+		return IStrategoTerm.BLOB;
+	}
+
+	@Override
+	public int getSubtermCount() {
+		return 0;
+	}
+
+	@Override
+	public IStrategoTerm getSubterm(int index) {
+		throw new IndexOutOfBoundsException();
+	}
+
+	@Override
+	public IStrategoTerm[] getAllSubterms() {
+		return NO_SUBTERMS;
+	}
+
+	@Override
+	protected boolean doSlowMatch(IStrategoTerm second, int commonStorageType) {
+		return this == second;
+	}
+
+	@Override
+	protected int hashFunction() {
+		return System.identityHashCode(this);
+	}
+
+	@Override
+	public void prettyPrint(ITermPrinter pp) {
+		pp.print(toString());
+	}
+
+	@Override
+	public void writeAsString(Appendable output, int maxDepth)
+			throws IOException {
+		output.append(getClass().getSimpleName());
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Cache of rule classifications. A verdict is keyed by a SHA-1 hash of the
+ * SoundX implementation, the rule, the desugarings of its extension, and the
+ * extension and base rule sets. Metavariables are renamed before hashing so
+ * that variants of a rule share a key. The verdicts are kept for the whole
+ * session and, if a cache directory is set, are appended to a file in that
+ * directory.
+ *
+ * The first line of the file names the SoundX implementation that wrote it.
+ * A file of another implementation is discarded when it is loaded, so an
+ * upgraded classification never reuses old verdicts. Each directory is
+ * loaded once per session. Loading drops duplicates, keeping the newest
+ * MAX_ENTRIES verdicts, and rewrites the file only if that changed it.
+ *
+ * Only successful classifications (X or B) are stored.
+ */
+public class SXClassificationCache {
+	private static final String CACHE_FILE = "soundx-classification";
+
+	private static final int MAX_ENTRIES = 100000;
+
+	private static final int MAX_RULE_DIGESTS = 32;
+
+	private static final SXClassificationCache instance = new SXClassificationCache();
+
+	/**
+	 * The verdicts of one cache directory, or of the memory if there is no
+	 * directory.
+	 */
+	private static class Verdicts {
+		final String implementation;
+		final Map<String, String> entries = new LinkedHashMap<String, String>();
+		File file;
+
+		Verdicts(String implementation, File file) {
+			this.implementation = implementation;
+			this.file = file;
+		}
+	}
+
+	private final Map<File, Verdicts> directories = new HashMap<File, Verdicts>();
+
+	private Verdicts current = new Verdicts("", null);
+
+	/** Hashes of the rule sets, keyed by the id of their rule index. */
+	private final Map<Integer, String> ruleDigests = new LinkedHashMap<Integer, String>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = -4630919174203568718L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+			return size() > MAX_RULE_DIGESTS;
+		}
+	};
+
+	private IStrategoTerm lastDesugarings;
+	private String lastDesugaringsDigest;
+
+	private SXClassificationCache() {
+	}
+
+	public static SXClassificationCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets the directory of the cache file and loads the verdicts stored in
+	 * it unless they have been loaded before. Passing null keeps the cache in
+	 * memory only.
+	 *
+	 * @param implementation
+	 *            hash identifying the SoundX implementation, part of every
+	 *            key
+	 */
+	public synchronized void setDirectory(File dir, String implementation) {
+		Verdicts verdicts = directories.get(dir);
+		if (verdicts == null
+				|| !verdicts.implementation.equals(implementation)) {
+			verdicts = new Verdicts(implementation, dir == null ? null
+					: new File(dir, CACHE_FILE));
+			if (verdicts.file != null)
+				load(verdicts);
+			directories.put(dir, verdicts);
+		}
+		current = verdicts;
+	}
+
+	/**
+	 * Returns the hash of a rule in the context of the rule sets and
+	 * desugarings. The rule sets are given by their indices, whose hashes are
+	 * computed once per index.
+	 */
+	public synchronized String key(ITermFactory factory, IStrategoTerm rule,
+			SXRuleIndex extRules, SXRuleIndex baseRules,
+			IStrategoTerm desugarings) {
+		return SXTerms.digest(current.implementation + ruleDigest(extRules)
+				+ ruleDigest(baseRules) + desugaringsDigest(desugarings)
+				+ SXTerms.canonicalize(factory, rule));
+	}
+
+	/**
+	 * Returns "X", "B" or null if there is no verdict for the key.
+	 */
+	public synchronized String lookup(String key) {
+		return current.entries.get(key);
+	}
+
+	public synchronized void store(String key, String verdict) {
+		if (verdict.equals(current.entries.put(key, verdict)))
+			return;
+		if (current.file == null)
+			return;
+		Writer writer = null;
+		try {
+			writer = new FileWriter(current.file, true);
+			writer.write(key + " " + verdict + "\n");
+		} catch (IOException e) {
+			// the verdict remains in memory
+			current.file = null;
+		} finally {
+			close(writer);
+		}
+	}
+
+	private String ruleDigest(SXRuleIndex index) {
+		String digest = ruleDigests.get(index.getId());
+		if (digest == null) {
+			digest = SXTerms.digest(index.getRules().toString());
+			ruleDigests.put(index.getId(), digest);
+		}
+		return digest;
+	}
+
+	/**
+	 * The desugarings are the same for all rules of an extension, so their
+	 * hash is reused as long as equal terms are passed.
+	 */
+	private String desugaringsDigest(IStrategoTerm desugarings) {
+		if (lastDesugaringsDigest == null
+				|| (desugarings != lastDesugarings && !desugarings
+						.equals(lastDesugarings))) {
+			lastDesugaringsDigest = SXTerms.digest(desugarings.toString());
+			lastDesugarings = desugarings;
+		}
+		return lastDesugaringsDigest;
+	}
+
+	/**
+	 * Reads the verdicts of the cache file if it was written by the current
+	 * implementation. The file is rewritten if it was written by another
+	 * implementation or contains duplicate, malformed or too many entries.
+	 */
+	private static void load(Verdicts verdicts) {
+		Map<String, String> entries = verdicts.entries;
+		boolean compact = true;
+		int lines = 0;
+		BufferedReader reader = null;
+		try {
+			if (verdicts.file.isFile()) {
+				reader = new BufferedReader(new FileReader(verdicts.file));
+				if (verdicts.implementation.equals(reader.readLine())) {
+					compact = false;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						lines++;
+						String[] entry = line.split(" ");
+						if (entry.length == 2
+								&& (entry[1].equals("X") || entry[1]
+										.equals("B"))) {
+							// a later line is the newer verdict
+							entries.remove(entry[0]);
+							entries.put(entry[0], entry[1]);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			// an unreadable cache file is ignored
+		} finally {
+			close(reader);
+		}
+		Iterator<String> oldest = entries.keySet().iterator();
+		for (int n = entries.size(); n > MAX_ENTRIES; n--) {
+			oldest.next();
+			oldest.remove();
+		}
+		if (compact || lines != entries.size())
+			rewrite(verdicts);
+	}
+
+	private static void rewrite(Verdicts verdicts) {
+		Writer writer = null;
+		try {
+			verdicts.file.getParentFile().mkdirs();
+			writer = new FileWriter(verdicts.file);
+			writer.write(verdicts.implementation + "\n");
+			for (Map.Entry<String, String> entry : verdicts.entries.entrySet())
+				writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+		} catch (IOException e) {
+			// the verdicts remain in memory
+			verdicts.file = null;
+		} finally {
+			close(writer);
+		}
+	}
+
+	private static void close(Closeable c) {
+		if (c != null)
+			try {
+				c.close();
+			} catch (IOException e) {
+			}
+	}
+}
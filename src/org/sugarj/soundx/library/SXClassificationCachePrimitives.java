@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Primitives for the classification cache.
+ */
+public class SXClassificationCachePrimitives {
+	private SXClassificationCachePrimitives() {
+	}
+
+	/**
+	 * Looks up the classification of the current rule. The term arguments
+	 * are the extension rules, the base rules and the desugarings. Returns
+	 * SXRuleX() or SXRuleB() and fails if there is no verdict.
+	 */
+	private static class Lookup extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Lookup(SoundXLibrary library) {
+			super("SUGARJ_sx_class_cache_lookup", 0, 3);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			ITermFactory factory = env.getFactory();
+			String key = key(library, factory, env.current(), tvars);
+			if (key == null)
+				return false;
+			String verdict = SXClassificationCache.getInstance().lookup(key);
+			if (verdict == null)
+				return false;
+			env.setCurrent(factory.makeAppl(factory.makeConstructor("SXRule"
+					+ verdict, 0)));
+			return true;
+		}
+	}
+
+	/**
+	 * Stores the current classification. The term arguments are the
+	 * extension rules, the base rules, the desugarings and the rule. Other
+	 * classifications than SXRuleX() and SXRuleB() are not stored.
+	 */
+	private static class Store extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Store(SoundXLibrary library) {
+			super("SUGARJ_sx_class_cache_store", 0, 4);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			String verdict;
+			if (SXTerms.isAppl(env.current(), "SXRuleX", 0))
+				verdict = "X";
+			else if (SXTerms.isAppl(env.current(), "SXRuleB", 0))
+				verdict = "B";
+			else
+				return true;
+			String key = key(library, env.getFactory(), tvars[3], tvars);
+			if (key == null)
+				return false;
+			SXClassificationCache.getInstance().store(key, verdict);
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the key of a rule given the extension rules, the base rules
+	 * and the desugarings as the first term arguments, or null if the rule
+	 * sets are not lists.
+	 */
+	private static String key(SoundXLibrary library, ITermFactory factory,
+			IStrategoTerm rule, IStrategoTerm[] tvars) {
+		if (tvars[0].getTermType() != IStrategoTerm.LIST
+				|| tvars[1].getTermType() != IStrategoTerm.LIST)
+			return null;
+		SXRuleIndexCache indices = library.getRuleIndices();
+		return SXClassificationCache.getInstance().key(factory, rule,
+				indices.get((IStrategoList) tvars[0]),
+				indices.get((IStrategoList) tvars[1]), tvars[2]);
+	}
+
+	public static void addTo(SoundXLibrary library) {
+		library.add(new Lookup(library));
+		library.add(new Store(library));
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * The analysis environment of a module. It maps keys to values like the
+ * former environment hash table, but keeps collections in mutable Java
+ * structures:
+ *
+ * - sequences are array lists; they are presented to Stratego either in
+ * insertion order or newest first, the order the former list-based
+ * environment produced. Membership tests use a hash set.
+ *
+ * - tables map names to values in insertion order.
+ *
+ * The list presentations of sequences and the values of tables are cached
+ * until the next modification, so repeated reads do not copy.
+ *
+ * A read-only copy can be handed to parallel tasks; all modifications of
+ * it fail.
+ */
+public class SXEnvironment extends SXBlobTerm {
+	private static final long serialVersionUID = 5189720416231907346L;
+
+	private static class Sequence {
+		final boolean newestFirst;
+		final List<IStrategoTerm> items = new ArrayList<IStrategoTerm>();
+		Set<IStrategoTerm> members;
+		IStrategoList list;
+
+		Sequence(boolean newestFirst) {
+			this.newestFirst = newestFirst;
+		}
+
+		void add(IStrategoTerm item) {
+			items.add(item);
+			if (members != null)
+				members.add(item);
+			list = null;
+		}
+
+		void setAll(IStrategoTerm[] elems) {
+			items.clear();
+			if (newestFirst)
+				for (int i = elems.length - 1; i >= 0; i--)
+					items.add(elems[i]);
+			else
+				for (IStrategoTerm elem : elems)
+					items.add(elem);
+			members = null;
+			list = null;
+		}
+
+		boolean contains(IStrategoTerm item) {
+			if (members == null)
+				members = new HashSet<IStrategoTerm>(items);
+			return members.contains(item);
+		}
+
+		IStrategoList toList(ITermFactory factory) {
+			if (list == null) {
+				IStrategoTerm[] elems = items.toArray(new IStrategoTerm[items
+						.size()]);
+				if (newestFirst)
+					for (int i = 0, j = elems.length - 1; i < j; i++, j--) {
+						IStrategoTerm tmp = elems[i];
+						elems[i] = elems[j];
+						elems[j] = tmp;
+					}
+				list = factory.makeList(elems);
+			}
+			return list;
+		}
+	}
+
+	private static class Table {
+		final Map<IStrategoTerm, IStrategoTerm> entries = new LinkedHashMap<IStrategoTerm, IStrategoTerm>();
+		IStrategoList values;
+
+		void put(IStrategoTerm name, IStrategoTerm value) {
+			entries.put(name, value);
+			values = null;
+		}
+
+		IStrategoList values(ITermFactory factory) {
+			if (values == null)
+				values = factory.makeList(entries.values().toArray(
+						new IStrategoTerm[entries.size()]));
+			return values;
+		}
+	}
+
+	private final ITermFactory factory;
+	private final Map<String, IStrategoTerm> values = new HashMap<String, IStrategoTerm>();
+	private final Map<String, Sequence> sequences = new HashMap<String, Sequence>();
+	private final Map<String, Table> tables = new HashMap<String, Table>();
+	private final boolean readOnly;
+
+	/**
+	 * Creates an environment with all keys set to their initial values.
+	 */
+	public SXEnvironment(ITermFactory factory) {
+		super(IStrategoTerm.MUTABLE);
+		this.factory = factory;
+		this.readOnly = false;
+
+		IStrategoTerm sxFalse = factory.makeAppl(factory.makeConstructor(
+				"SXFalse", 0));
+		sequences.put("toplevel-declarations", new Sequence(false));
+		values.put("failed", sxFalse);
+		values.put("namespace", factory.makeString(""));
+		sequences.put("imports", new Sequence(true));
+		sequences.put("cons-names", new Sequence(true));
+		values.put("extension-processing", sxFalse);
+		sequences.put("errors", new Sequence(true));
+		sequences.put("desugarings", new Sequence(true));
+		tables.put("inference-rules", new Table());
+		tables.put("named-inf-rules", new Table());
+		values.put("grammar-elems", factory.makeList());
+		values.put("name-counter", factory.makeInt(0));
+		values.put("interface", sxFalse);
+		values.put("re-exports", sxFalse);
+		values.put("derivation", sxFalse);
+		values.put("pp-table", sxFalse);
+	}
+
+	private SXEnvironment(SXEnvironment env) {
+		super(IStrategoTerm.MUTABLE);
+		this.factory = env.factory;
+		this.readOnly = true;
+		values.putAll(env.values);
+		for (Map.Entry<String, Sequence> e : env.sequences.entrySet()) {
+			Sequence seq = new Sequence(e.getValue().newestFirst);
+			seq.items.addAll(e.getValue().items);
+			sequences.put(e.getKey(), seq);
+		}
+		for (Map.Entry<String, Table> e : env.tables.entrySet()) {
+			Table table = new Table();
+			table.entries.putAll(e.getValue().entries);
+			tables.put(e.getKey(), table);
+		}
+	}
+
+	/**
+	 * Returns a read-only copy of the environment. Later modifications of
+	 * this environment do not show in the copy.
+	 */
+	public synchronized SXEnvironment readOnlyCopy() {
+		return new SXEnvironment(this);
+	}
+
+	/**
+	 * Returns the value of a key, sequences as lists. Returns null for
+	 * unknown keys and tables.
+	 */
+	public synchronized IStrategoTerm get(String key) {
+		Sequence seq = sequences.get(key);
+		if (seq != null)
+			return seq.toList(factory);
+		return values.get(key);
+	}
+
+	/**
+	 * Sets the value of a key. A sequence is replaced by the elements of the
+	 * list value. Returns false for tables or if a sequence is set to a
+	 * non-list.
+	 */
+	public synchronized boolean set(String key, IStrategoTerm value) {
+		if (readOnly || tables.containsKey(key))
+			return false;
+		Sequence seq = sequences.get(key);
+		if (seq == null) {
+			values.put(key, value);
+			return true;
+		}
+		if (value.getTermType() != IStrategoTerm.LIST)
+			return false;
+		seq.setAll(value.getAllSubterms());
+		return true;
+	}
+
+	/**
+	 * Adds an element to a sequence. Returns false if the key is not a
+	 * sequence.
+	 */
+	public synchronized boolean add(String key, IStrategoTerm item) {
+		Sequence seq = sequences.get(key);
+		if (readOnly || seq == null)
+			return false;
+		seq.add(item);
+		return true;
+	}
+
+	/**
+	 * Checks if a sequence contains an element.
+	 */
+	public synchronized boolean contains(String key, IStrategoTerm item) {
+		Sequence seq = sequences.get(key);
+		return seq != null && seq.contains(item);
+	}
+
+	/**
+	 * Puts an entry into a table. Returns false if the key is not a table.
+	 */
+	public synchronized boolean put(String key, IStrategoTerm name,
+			IStrategoTerm value) {
+		Table table = tables.get(key);
+		if (readOnly || table == null)
+			return false;
+		table.put(name, value);
+		return true;
+	}
+
+	/**
+	 * Returns the value of a table entry or null if there is none.
+	 */
+	public synchronized IStrategoTerm lookup(String key, IStrategoTerm name) {
+		Table table = tables.get(key);
+		return table == null ? null : table.entries.get(name);
+	}
+
+	/**
+	 * Returns the values of a table in insertion order or null if the key
+	 * is not a table.
+	 */
+	public synchronized IStrategoList tableValues(String key) {
+		Table table = tables.get(key);
+		return table == null ? null : table.values(factory);
+	}
+
+	/**
+	 * Drops all contents of the environment at the end of a module. Terms
+	 * that still refer to the environment do not keep the module's
+	 * declarations, rules and derivation alive afterwards; all keys are
+	 * unknown from then on. A read-only copy is not released.
+	 */
+	public synchronized void release() {
+		if (readOnly)
+			return;
+		values.clear();
+		sequences.clear();
+		tables.clear();
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Primitives for the analysis environment. Except for
+ * SUGARJ_sx_env_new, the environment is the first term argument and the
+ * key is a string. SUGARJ_sx_env_release and SUGARJ_sx_env_read_only
+ * ignore the current term.
+ */
+public abstract class SXEnvironmentPrimitive extends AbstractPrimitive {
+	protected SXEnvironmentPrimitive(String name, int tvars) {
+		super(name, 0, tvars);
+	}
+
+	@Override
+	public boolean call(IContext env, Strategy[] svars, IStrategoTerm[] tvars)
+			throws InterpreterException {
+		if (!(tvars[0] instanceof SXEnvironment))
+			return false;
+		return call(env, (SXEnvironment) tvars[0], env.current());
+	}
+
+	/**
+	 * Performs the operation on the environment with the current term.
+	 */
+	protected abstract boolean call(IContext env, SXEnvironment sxEnv,
+			IStrategoTerm current);
+
+	private static String string(IStrategoTerm term) {
+		return term.getTermType() == IStrategoTerm.STRING ? ((IStrategoString) term)
+				.stringValue() : null;
+	}
+
+	private static boolean isPair(IStrategoTerm term) {
+		return term.getTermType() == IStrategoTerm.TUPLE
+				&& term.getSubtermCount() == 2
+				&& string(term.getSubterm(0)) != null;
+	}
+
+	/**
+	 * Registers the environment primitives with the library.
+	 */
+	public static void addTo(SoundXLibrary library) {
+		// creates a new environment
+		library.add(new AbstractPrimitive("SUGARJ_sx_env_new", 0, 0) {
+			@Override
+			public boolean call(IContext env, Strategy[] svars,
+					IStrategoTerm[] tvars) throws InterpreterException {
+				env.setCurrent(new SXEnvironment(env.getFactory()));
+				return true;
+			}
+		});
+
+		// key -> value
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_get", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				String key = string(current);
+				IStrategoTerm value = key == null ? null : sxEnv.get(key);
+				if (value == null)
+					return false;
+				env.setCurrent(value);
+				return true;
+			}
+		});
+
+		// (key, value) -> (key, value)
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_set", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				return isPair(current)
+						&& sxEnv.set(string(current.getSubterm(0)),
+								current.getSubterm(1));
+			}
+		});
+
+		// (key, item) -> (key, item)
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_add", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				return isPair(current)
+						&& sxEnv.add(string(current.getSubterm(0)),
+								current.getSubterm(1));
+			}
+		});
+
+		// (key, item) -> (key, item), fails if the item is not contained
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_contains", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				return isPair(current)
+						&& sxEnv.contains(string(current.getSubterm(0)),
+								current.getSubterm(1));
+			}
+		});
+
+		// (key, name, value) -> (key, name, value)
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_put", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				return current.getTermType() == IStrategoTerm.TUPLE
+						&& current.getSubtermCount() == 3
+						&& string(current.getSubterm(0)) != null
+						&& sxEnv.put(string(current.getSubterm(0)),
+								current.getSubterm(1), current.getSubterm(2));
+			}
+		});
+
+		// (key, name) -> value, fails if there is no entry
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_lookup", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				if (!isPair(current))
+					return false;
+				IStrategoTerm value = sxEnv.lookup(
+						string(current.getSubterm(0)), current.getSubterm(1));
+				if (value == null)
+					return false;
+				env.setCurrent(value);
+				return true;
+			}
+		});
+
+		// key -> List(value)
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_values", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				String key = string(current);
+				IStrategoTerm values = key == null ? null : sxEnv
+						.tableValues(key);
+				if (values == null)
+					return false;
+				env.setCurrent(values);
+				return true;
+			}
+		});
+
+		// _ -> SXEnv
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_read_only", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				env.setCurrent(sxEnv.readOnlyCopy());
+				return true;
+			}
+		});
+
+		// _ -> _
+		library.add(new SXEnvironmentPrimitive("SUGARJ_sx_env_release", 1) {
+			@Override
+			protected boolean call(IContext env, SXEnvironment sxEnv,
+					IStrategoTerm current) {
+				sxEnv.release();
+				return true;
+			}
+		});
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Cache of derivations of goals about single toplevel declarations, kept
+ * across analyses of a module. A goal is cacheable if one of its arguments
+ * is a toplevel declaration of the module being analyzed. Goals are keyed
+ * by the rule set and the variant of the assumptions and the goal, so an
+ * unchanged declaration in an unchanged context is found again after
+ * other declarations have been edited.
+ *
+ * The goals of the context analysis contain the declarations annotated by
+ * sx-annotate-is-source, so declarations are compared without annotations.
+ *
+ * Derivations that use the primitive =interface() judgement are not
+ * stored. They depend on the interfaces of imported modules, which are not
+ * part of the key and may change while the declaration stays the same.
+ *
+ * The stored derivations have the metavariables of the goal renamed
+ * canonically. On lookup they are renamed to the metavariables of the
+ * actual goal, all other metavariables are renamed to fresh ones.
+ *
+ * Only the derivations of one module are kept. They are dropped when the
+ * declarations of another module are set.
+ *
+ * Besides derivations, the cache remembers goal lists that failed during
+ * the current analysis, see isFailure.
+ */
+public class SXGoalCache {
+	private static final int MAX_ENTRIES = 10000;
+
+	private static class Key {
+		final int rulesId;
+		final IStrategoTerm goal;
+
+		Key(int rulesId, IStrategoTerm goal) {
+			this.rulesId = rulesId;
+			this.goal = goal;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * rulesId + goal.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return rulesId == other.rulesId && goal.equals(other.goal);
+		}
+	}
+
+	private final SoundXLibrary library;
+
+	private final Map<Key, IStrategoTerm> derivations = new LinkedHashMap<Key, IStrategoTerm>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 2837519475628203761L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, IStrategoTerm> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private final Set<Key> failures = Collections
+			.newSetFromMap(new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+				private static final long serialVersionUID = 6203498157730125613L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Key, Boolean> eldest) {
+					return size() > MAX_ENTRIES;
+				}
+			});
+
+	/** Rule sets of the stored derivations, numbered by first use. */
+	private final Map<IStrategoTerm, Integer> ruleSets = new HashMap<IStrategoTerm, Integer>();
+	private IStrategoTerm lastRules;
+	private int lastRulesId;
+
+	private String module;
+	private Set<IStrategoTerm> declarations = new HashSet<IStrategoTerm>();
+	private Set<IStrategoConstructor> constructors = new HashSet<IStrategoConstructor>();
+
+	private int hits;
+	private int misses;
+
+	public SXGoalCache(SoundXLibrary library) {
+		this.library = library;
+	}
+
+	/**
+	 * Sets the toplevel declarations of the module being analyzed. Drops
+	 * the derivations of other modules and the remembered failures.
+	 */
+	public synchronized void setDeclarations(ITermFactory factory,
+			String module, Collection<IStrategoTerm> decls) {
+		if (!module.equals(this.module)) {
+			derivations.clear();
+			ruleSets.clear();
+			lastRules = null;
+			this.module = module;
+		}
+		failures.clear();
+		declarations = new HashSet<IStrategoTerm>();
+		constructors = new HashSet<IStrategoConstructor>();
+		for (IStrategoTerm decl : decls) {
+			declarations.add(SXTerms.stripAnnotations(factory, decl));
+			if (decl.getTermType() == IStrategoTerm.APPL)
+				constructors.add(((IStrategoAppl) decl).getConstructor());
+		}
+		if (!decls.isEmpty())
+			hits = misses = 0;
+	}
+
+	/**
+	 * Ends the processing of a module. Keeps only the derivations of that
+	 * module for its next analysis.
+	 */
+	public synchronized void endModule(String module) {
+		if (!module.equals(this.module)) {
+			derivations.clear();
+			ruleSets.clear();
+			lastRules = null;
+			this.module = null;
+		}
+		failures.clear();
+		declarations = new HashSet<IStrategoTerm>();
+		constructors = new HashSet<IStrategoConstructor>();
+	}
+
+	/**
+	 * Checks if one of the arguments of the goal is a toplevel declaration.
+	 */
+	public synchronized boolean isCacheable(ITermFactory factory,
+			IStrategoTerm goal) {
+		if (declarations.isEmpty()
+				|| goal.getTermType() != IStrategoTerm.APPL)
+			return false;
+		for (IStrategoTerm arg : goal.getAllSubterms())
+			if (arg.getTermType() == IStrategoTerm.APPL
+					&& constructors.contains(((IStrategoAppl) arg)
+							.getConstructor())
+					&& declarations.contains(SXTerms.stripAnnotations(
+							factory, arg)))
+				return true;
+		return false;
+	}
+
+	public synchronized IStrategoTerm lookup(ITermFactory factory,
+			IStrategoList rules, IStrategoTerm asms, IStrategoTerm goal) {
+		Map<IStrategoTerm, IStrategoTerm> renaming = new HashMap<IStrategoTerm, IStrategoTerm>();
+		IStrategoTerm key = rename(factory,
+				factory.makeTuple(asms, goal), renaming, true);
+		IStrategoTerm deriv = derivations.get(new Key(rulesId(rules), key));
+		if (deriv == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+
+		// rename canonical to actual, all others to fresh metavariables
+		Map<IStrategoTerm, IStrategoTerm> inverse = new HashMap<IStrategoTerm, IStrategoTerm>();
+		for (Map.Entry<IStrategoTerm, IStrategoTerm> e : renaming.entrySet())
+			inverse.put(e.getValue(), e.getKey());
+		return instantiate(factory, deriv, inverse);
+	}
+
+	public synchronized void store(ITermFactory factory, IStrategoList rules,
+			IStrategoTerm asms, IStrategoTerm goal, IStrategoTerm deriv) {
+		if (usesInterface(deriv))
+			return;
+		Map<IStrategoTerm, IStrategoTerm> renaming = new HashMap<IStrategoTerm, IStrategoTerm>();
+		IStrategoTerm key = rename(factory,
+				factory.makeTuple(asms, goal), renaming, true);
+		derivations.put(new Key(rulesId(rules), key),
+				rename(factory, deriv, renaming, false));
+	}
+
+	/**
+	 * Checks if a variant of the goal list has failed before in the current
+	 * analysis. Failures are not kept across analyses since they may depend
+	 * on the interfaces of imported modules.
+	 */
+	public synchronized boolean isFailure(ITermFactory factory,
+			IStrategoList rules, IStrategoTerm asms, IStrategoTerm goals) {
+		return failures.contains(new Key(rulesId(rules), SXTerms
+				.canonicalize(factory, factory.makeTuple(asms, goals))));
+	}
+
+	public synchronized void storeFailure(ITermFactory factory,
+			IStrategoList rules, IStrategoTerm asms, IStrategoTerm goals) {
+		failures.add(new Key(rulesId(rules), SXTerms.canonicalize(factory,
+				factory.makeTuple(asms, goals))));
+	}
+
+	/**
+	 * Returns the number of lookups that found a derivation and of those
+	 * that did not since the declarations were last set.
+	 */
+	public synchronized int[] getStatistics() {
+		return new int[] { hits, misses };
+	}
+
+	private int rulesId(IStrategoList rules) {
+		if (rules == lastRules)
+			return lastRulesId;
+		Integer id = ruleSets.get(rules);
+		if (id == null) {
+			id = ruleSets.size();
+			ruleSets.put(rules, id);
+		}
+		lastRules = rules;
+		lastRulesId = id;
+		return id;
+	}
+
+	/**
+	 * Checks if a derivation contains a step of the =interface() judgement.
+	 */
+	private static boolean usesInterface(IStrategoTerm deriv) {
+		if (SXTerms.isAppl(deriv, "SXDerivInst", 3)
+				&& deriv.getSubterm(1).getTermType() == IStrategoTerm.STRING
+				&& ((IStrategoString) deriv.getSubterm(1)).stringValue()
+						.equals("=interface()"))
+			return true;
+		for (IStrategoTerm sub : deriv.getAllSubterms())
+			if (usesInterface(sub))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Renames metavariables by the renaming. If extend is set, unknown
+	 * metavariables are added to the renaming with canonical names.
+	 */
+	private static IStrategoTerm rename(ITermFactory factory,
+			IStrategoTerm term, Map<IStrategoTerm, IStrategoTerm> renaming,
+			boolean extend) {
+		if (SXTerms.isMetaVar(term)) {
+			IStrategoTerm var = renaming.get(term);
+			if (var == null && extend) {
+				var = factory.makeAppl(
+						factory.makeConstructor("SXMetaVarGen", 2),
+						factory.makeString(""),
+						factory.makeInt(renaming.size()));
+				renaming.put(term, var);
+			}
+			return var == null ? term : var;
+		}
+		int arity = term.getSubtermCount();
+		if (arity == 0)
+			return term;
+		IStrategoTerm[] args = new IStrategoTerm[arity];
+		boolean changed = false;
+		for (int i = 0; i < arity; i++) {
+			args[i] = rename(factory, term.getSubterm(i), renaming, extend);
+			changed |= args[i] != term.getSubterm(i);
+		}
+		if (!changed)
+			return term;
+		return rebuild(factory, term, args);
+	}
+
+	/**
+	 * Renames the canonical metavariables of a stored derivation to the
+	 * actual ones and all other metavariables to fresh ones.
+	 */
+	private IStrategoTerm instantiate(ITermFactory factory,
+			IStrategoTerm deriv, Map<IStrategoTerm, IStrategoTerm> renaming) {
+		Set<IStrategoTerm> others = new HashSet<IStrategoTerm>();
+		collectVars(deriv, renaming, others);
+		if (!others.isEmpty()) {
+			renaming = new HashMap<IStrategoTerm, IStrategoTerm>(renaming);
+			int base = library.reserveFreshNumbers(others.size());
+			int i = 0;
+			for (IStrategoTerm var : others)
+				renaming.put(var, factory.makeAppl(
+						factory.makeConstructor("SXMetaVarGen", 2),
+						var.getSubterm(0), factory.makeInt(-(base + i++ + 1))));
+		}
+		return rename(factory, deriv, renaming, false);
+	}
+
+	private static void collectVars(IStrategoTerm term,
+			Map<IStrategoTerm, IStrategoTerm> known, Set<IStrategoTerm> vars) {
+		if (SXTerms.isMetaVar(term)) {
+			if (!known.containsKey(term))
+				vars.add(term);
+			return;
+		}
+		for (IStrategoTerm sub : term.getAllSubterms())
+			collectVars(sub, known, vars);
+	}
+
+	private static IStrategoTerm rebuild(ITermFactory factory,
+			IStrategoTerm term, IStrategoTerm[] args) {
+		IStrategoTerm result;
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			result = factory.makeAppl(((IStrategoAppl) term).getConstructor(),
+					args);
+			break;
+		case IStrategoTerm.LIST:
+			result = factory.makeList(args);
+			break;
+		case IStrategoTerm.TUPLE:
+			result = factory.makeTuple(args);
+			break;
+		default:
+			return term;
+		}
+		return factory.annotateTerm(result, term.getAnnotations());
+	}
+}
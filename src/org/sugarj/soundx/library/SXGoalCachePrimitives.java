@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.Arrays;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Primitives for the cache of declaration goals in the depth-first engine.
+ */
+public class SXGoalCachePrimitives {
+	private SXGoalCachePrimitives() {
+	}
+
+	/**
+	 * Sets the current list as the toplevel declarations of the module. The
+	 * term argument is the name of the module.
+	 */
+	private static class Declarations extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Declarations(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_declarations", 0, 1);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			if (env.current().getTermType() != IStrategoTerm.LIST
+					|| tvars[0].getTermType() != IStrategoTerm.STRING)
+				return false;
+			library.getGoalCache().setDeclarations(env.getFactory(),
+					((IStrategoString) tvars[0]).stringValue(),
+					Arrays.asList(env.current().getAllSubterms()));
+			return true;
+		}
+	}
+
+	/**
+	 * Ends the processing of the module whose name is the current term.
+	 */
+	private static class EndModule extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		EndModule(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_end_module", 0, 0);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			if (env.current().getTermType() != IStrategoTerm.STRING)
+				return false;
+			library.getGoalCache().endModule(
+					((IStrategoString) env.current()).stringValue());
+			return true;
+		}
+	}
+
+	/**
+	 * Checks if the current goal is about a toplevel declaration.
+	 */
+	private static class IsCacheable extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		IsCacheable(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_is_cacheable", 0, 0);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			return library.getGoalCache().isCacheable(env.getFactory(),
+					env.current());
+		}
+	}
+
+	/**
+	 * Looks up the derivation for (asms, goal). The term argument are the
+	 * inference rules. Fails if there is no derivation.
+	 */
+	private static class Lookup extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Lookup(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_lookup", 0, 1);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			IStrategoTerm current = env.current();
+			if (tvars[0].getTermType() != IStrategoTerm.LIST
+					|| current.getSubtermCount() != 2)
+				return false;
+			IStrategoTerm deriv = library.getGoalCache().lookup(
+					env.getFactory(), (IStrategoList) tvars[0],
+					current.getSubterm(0),
+					current.getSubterm(1));
+			if (deriv == null)
+				return false;
+			env.setCurrent(deriv);
+			return true;
+		}
+	}
+
+	/**
+	 * Stores the current derivation. The term arguments are the inference
+	 * rules, the assumptions and the goal.
+	 */
+	private static class Store extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Store(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_store", 0, 3);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			if (tvars[0].getTermType() != IStrategoTerm.LIST)
+				return false;
+			library.getGoalCache().store(env.getFactory(),
+					(IStrategoList) tvars[0], tvars[1], tvars[2], env.current());
+			return true;
+		}
+	}
+
+	/**
+	 * Succeeds if a variant of the current pair (asms, goals) has failed
+	 * before. The term argument are the inference rules.
+	 */
+	private static class IsFailure extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		IsFailure(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_is_failure", 0, 1);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			IStrategoTerm current = env.current();
+			if (tvars[0].getTermType() != IStrategoTerm.LIST
+					|| current.getSubtermCount() != 2)
+				return false;
+			return library.getGoalCache().isFailure(env.getFactory(),
+					(IStrategoList) tvars[0], current.getSubterm(0),
+					current.getSubterm(1));
+		}
+	}
+
+	/**
+	 * Remembers that the current pair (asms, goals) failed. The term
+	 * argument are the inference rules.
+	 */
+	private static class StoreFailure extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		StoreFailure(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_store_failure", 0, 1);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			IStrategoTerm current = env.current();
+			if (tvars[0].getTermType() != IStrategoTerm.LIST
+					|| current.getSubtermCount() != 2)
+				return false;
+			library.getGoalCache().storeFailure(env.getFactory(),
+					(IStrategoList) tvars[0], current.getSubterm(0),
+					current.getSubterm(1));
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the numbers of lookups with and without a cached derivation
+	 * as a pair.
+	 */
+	private static class Statistics extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Statistics(SoundXLibrary library) {
+			super("SUGARJ_sx_goal_cache_statistics", 0, 0);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			int[] stats = library.getGoalCache().getStatistics();
+			ITermFactory factory = env.getFactory();
+			env.setCurrent(factory.makeTuple(factory.makeInt(stats[0]),
+					factory.makeInt(stats[1])));
+			return true;
+		}
+	}
+
+	public static void addTo(SoundXLibrary library) {
+		library.add(new Declarations(library));
+		library.add(new EndModule(library));
+		library.add(new IsCacheable(library));
+		library.add(new Lookup(library));
+		library.add(new Store(library));
+		library.add(new IsFailure(library));
+		library.add(new StoreFailure(library));
+		library.add(new Statistics(library));
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Instantiates an inference rule for a goal. The current term is a pair of
+ * the goal and the rule or the rule and the goal; the order is the order of
+ * unification like in sx-unify. The term arguments are the rule list the
+ * rule belongs to and the rigid metavariables of the goal.
+ *
+ * Returns the instantiated premises, the rule name, and the unifier
+ * restricted to the metavariables of the goal. Fails if the goal does not
+ * unify with the conclusion of the rule. The scheduled variant returns the
+ * premises in the execution order of the rule and additionally the list of
+ * their original positions, which is empty if the order is unchanged.
+ */
+public class SXInstantiateRulePrimitive extends AbstractPrimitive {
+	private final SoundXLibrary library;
+	private final boolean scheduled;
+
+	public SXInstantiateRulePrimitive(String name, SoundXLibrary library,
+			boolean scheduled) {
+		super(name, 0, 2);
+		this.library = library;
+		this.scheduled = scheduled;
+	}
+
+	@Override
+	public boolean call(IContext env, Strategy[] svars, IStrategoTerm[] tvars)
+			throws InterpreterException {
+		IStrategoTerm current = env.current();
+		if (current.getTermType() != IStrategoTerm.TUPLE
+				|| current.getSubtermCount() != 2
+				|| tvars[0].getTermType() != IStrategoTerm.LIST)
+			return false;
+
+		boolean goalFirst = !SXTerms.isAppl(current.getSubterm(0),
+				"SXInfRule", 3);
+		IStrategoTerm goal = current.getSubterm(goalFirst ? 0 : 1);
+		IStrategoTerm ruleTerm = current.getSubterm(goalFirst ? 1 : 0);
+
+		SXRule rule = library.getRuleIndices().get((IStrategoList) tvars[0])
+				.getPreparedRule(ruleTerm);
+		if (rule == null)
+			return false;
+
+		Set<IStrategoTerm> rigidVars;
+		if (tvars[1].getSubtermCount() == 0)
+			rigidVars = Collections.emptySet();
+		else
+			rigidVars = new HashSet<IStrategoTerm>(Arrays.asList(tvars[1]
+					.getAllSubterms()));
+		ITermFactory factory = env.getFactory();
+		SXRuleUnifier unifier = new SXRuleUnifier(factory, library, rule,
+				rigidVars);
+		if (!unifier.unify(goal, goalFirst))
+			return false;
+
+		IStrategoTerm premises = unifier.getPremises(scheduled);
+		IStrategoTerm sub = unifier.getGoalSubstitution();
+		if (scheduled)
+			env.setCurrent(factory.makeTuple(premises, rule.getName(), sub,
+					schedule(factory, rule.getSchedule())));
+		else
+			env.setCurrent(factory.makeTuple(premises, rule.getName(), sub));
+		return true;
+	}
+
+	private static IStrategoTerm schedule(ITermFactory factory, int[] schedule) {
+		if (schedule == null)
+			return factory.makeList();
+		IStrategoTerm[] positions = new IStrategoTerm[schedule.length];
+		for (int i = 0; i < schedule.length; i++)
+			positions[i] = factory.makeInt(schedule[i]);
+		return factory.makeList(positions);
+	}
+}
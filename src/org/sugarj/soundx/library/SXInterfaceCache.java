@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Cache of module interfaces. It maps the path of a module together with
+ * the stamp of the module's generated interface definition to the interface
+ * term (expression and re-exports). If a module is recompiled its interface
+ * definition carries a different stamp, so the old entry is not returned.
+ *
+ * The cache is scoped to one build. SXBuildScheduler clears it when a build
+ * starts; a module compiled on its own clears it when its processor is
+ * initialized, unless a scheduled build is running.
+ */
+public class SXInterfaceCache {
+	private static final SXInterfaceCache instance = new SXInterfaceCache();
+
+	private static class Key {
+		final String module;
+		final String stamp;
+
+		Key(String module, String stamp) {
+			this.module = module;
+			this.stamp = stamp;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * module.hashCode() + stamp.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return module.equals(other.module) && stamp.equals(other.stamp);
+		}
+	}
+
+	private final ConcurrentMap<Key, IStrategoTerm> entries = new ConcurrentHashMap<Key, IStrategoTerm>();
+
+	private int builds = 0;
+
+	private SXInterfaceCache() {
+	}
+
+	public static SXInterfaceCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts a scheduled build. The first of overlapping builds clears the
+	 * cache.
+	 */
+	public synchronized void beginBuild() {
+		if (builds++ == 0)
+			entries.clear();
+	}
+
+	public synchronized void endBuild() {
+		builds--;
+	}
+
+	/**
+	 * Starts the compilation of a module. Outside of a scheduled build the
+	 * module is a build of its own and the cache is cleared.
+	 */
+	public synchronized void beginModule() {
+		if (builds == 0)
+			entries.clear();
+	}
+
+	/**
+	 * Returns the stamp of an interface term.
+	 */
+	public String stamp(IStrategoTerm interfaceTerm) {
+		return SXTerms.digest(interfaceTerm.toString());
+	}
+
+	/**
+	 * Returns the interface of a module if it was stored with the given
+	 * stamp, otherwise null.
+	 */
+	public IStrategoTerm lookup(String module, String stamp) {
+		return entries.get(new Key(module, stamp));
+	}
+
+	public void store(String module, String stamp, IStrategoTerm interfaceTerm) {
+		entries.put(new Key(module, stamp), interfaceTerm);
+	}
+}
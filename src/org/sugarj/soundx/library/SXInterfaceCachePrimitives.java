@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Primitives for the interface cache.
+ */
+public class SXInterfaceCachePrimitives {
+	private SXInterfaceCachePrimitives() {
+	}
+
+	private static String string(IStrategoTerm term) {
+		return term.getTermType() == IStrategoTerm.STRING ? ((IStrategoString) term)
+				.stringValue() : null;
+	}
+
+	/**
+	 * Returns the stamp of the current interface term as a string.
+	 */
+	private static class Stamp extends AbstractPrimitive {
+		Stamp() {
+			super("SUGARJ_sx_interface_stamp", 0, 0);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			env.setCurrent(env.getFactory().makeString(
+					SXInterfaceCache.getInstance().stamp(env.current())));
+			return true;
+		}
+	}
+
+	/**
+	 * Looks up the interface of the current module path. The term argument
+	 * is the stamp of the module's interface definition. Fails if there is
+	 * no interface with this stamp.
+	 */
+	private static class Lookup extends AbstractPrimitive {
+		Lookup() {
+			super("SUGARJ_sx_interface_cache_lookup", 0, 1);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			String module = string(env.current());
+			String stamp = string(tvars[0]);
+			if (module == null || stamp == null)
+				return false;
+			IStrategoTerm interfaceTerm = SXInterfaceCache.getInstance()
+					.lookup(module, stamp);
+			if (interfaceTerm == null)
+				return false;
+			env.setCurrent(interfaceTerm);
+			return true;
+		}
+	}
+
+	/**
+	 * Stores the interface of the current module path. The term arguments
+	 * are the stamp and the interface.
+	 */
+	private static class Store extends AbstractPrimitive {
+		Store() {
+			super("SUGARJ_sx_interface_cache_store", 0, 2);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			String module = string(env.current());
+			String stamp = string(tvars[0]);
+			if (module == null || stamp == null)
+				return false;
+			SXInterfaceCache.getInstance().store(module, stamp, tvars[1]);
+			return true;
+		}
+	}
+
+	public static void addTo(SoundXLibrary library) {
+		library.add(new Stamp());
+		library.add(new Lookup());
+		library.add(new Store());
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.strategoxt.HybridInterpreter;
+
+/**
+ * Applies a strategy to all elements of a list in parallel. The term
+ * argument is the name of the strategy. Each task runs the strategy on a
+ * copy of the interpreter, so the strategy must not depend on dynamic rules
+ * of the calling interpreter and must not modify shared state. The copies
+ * are kept for later calls as long as the library stays registered with the
+ * same interpreter; a copy runs one task at a time.
+ *
+ * The results are returned in the order of the list. If the strategy fails
+ * for an element, the result is SXTaskFailed(). The primitive fails if
+ * there is no interpreter to copy, so callers should fall back to a
+ * sequential map.
+ */
+public class SXParallelMapPrimitive extends AbstractPrimitive {
+	private static ForkJoinPool pool;
+
+	private final SoundXLibrary library;
+
+	/** Copies of the interpreter that are not running a task. */
+	private final Queue<HybridInterpreter> idle = new ConcurrentLinkedQueue<HybridInterpreter>();
+
+	/** The interpreter the idle copies were made of. */
+	private HybridInterpreter copied;
+
+	public SXParallelMapPrimitive(SoundXLibrary library) {
+		super("SUGARJ_sx_parallel_map", 0, 1);
+		this.library = library;
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return pool;
+	}
+
+	@Override
+	public boolean call(IContext env, Strategy[] svars, IStrategoTerm[] tvars)
+			throws InterpreterException {
+		final HybridInterpreter interp = library.getInterpreter();
+		IStrategoTerm current = env.current();
+		if (interp == null || current.getTermType() != IStrategoTerm.LIST
+				|| tvars[0].getTermType() != IStrategoTerm.STRING)
+			return false;
+
+		final String strategy = ((IStrategoString) tvars[0]).stringValue();
+		final ITermFactory factory = env.getFactory();
+		synchronized (idle) {
+			if (interp != copied) {
+				idle.clear();
+				copied = interp;
+			}
+		}
+
+		List<Callable<IStrategoTerm>> tasks = new ArrayList<Callable<IStrategoTerm>>();
+		for (final IStrategoTerm element : current.getAllSubterms())
+			tasks.add(new Callable<IStrategoTerm>() {
+				@Override
+				public IStrategoTerm call() throws Exception {
+					HybridInterpreter worker = idle.poll();
+					if (worker == null) {
+						worker = new HybridInterpreter(interp);
+						// a copy may share the compiled context with the
+						// original, which must stay the registered interpreter
+						if (worker.getCompiledContext().getOperatorRegistry(
+								SoundXLibrary.REGISTRY_NAME) == null)
+							SoundXLibrary.register(worker);
+					}
+					worker.setCurrent(element);
+					IStrategoTerm result = worker.invoke(strategy) ? worker
+							.current() : factory.makeAppl(factory
+							.makeConstructor("SXTaskFailed", 0));
+					// a copy that threw is not reused
+					idle.offer(worker);
+					return result;
+				}
+			});
+
+		List<Future<IStrategoTerm>> futures = getPool().invokeAll(tasks);
+		IStrategoTerm[] results = new IStrategoTerm[futures.size()];
+		try {
+			for (int i = 0; i < results.length; i++)
+				results[i] = futures.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			throw new InterpreterException(e.getCause());
+		}
+		env.setCurrent(factory.makeList(results));
+		return true;
+	}
+}
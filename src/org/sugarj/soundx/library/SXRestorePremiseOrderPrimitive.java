@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Puts a list of premise derivations in execution order back into the
+ * original premise order. The term argument is the list of original
+ * positions returned by SUGARJ_sx_instantiate_rule_scheduled.
+ */
+public class SXRestorePremiseOrderPrimitive extends AbstractPrimitive {
+	public SXRestorePremiseOrderPrimitive() {
+		super("SUGARJ_sx_restore_premise_order", 0, 1);
+	}
+
+	@Override
+	public boolean call(IContext env, Strategy[] svars, IStrategoTerm[] tvars)
+			throws InterpreterException {
+		IStrategoTerm current = env.current();
+		IStrategoTerm schedule = tvars[0];
+		if (current.getTermType() != IStrategoTerm.LIST
+				|| schedule.getTermType() != IStrategoTerm.LIST)
+			return false;
+		if (schedule.getSubtermCount() == 0)
+			return true;
+		if (schedule.getSubtermCount() != current.getSubtermCount())
+			return false;
+
+		IStrategoTerm[] derivs = new IStrategoTerm[current.getSubtermCount()];
+		for (int i = 0; i < derivs.length; i++)
+			derivs[((IStrategoInt) schedule.getSubterm(i)).intValue()] = current
+					.getSubterm(i);
+		env.setCurrent(env.getFactory().makeList(derivs));
+		return true;
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * An inference rule prepared for instantiation. The metavariables of the
+ * rule are numbered once, an instantiation refers to them by their number
+ * instead of renaming the rule.
+ *
+ * The rule also carries an execution order of its premises for the
+ * depth-first engine. Primitive judgements need their input arguments to be
+ * ground, so a primitive whose inputs are neither bound by the conclusion
+ * nor by a preceding premise is deferred until a following premise binds
+ * them. Inductively defined judgements keep their relative order.
+ */
+public class SXRule {
+	private final IStrategoTerm term;
+	private final IStrategoTerm[] premises;
+	private final IStrategoTerm name;
+	private final IStrategoTerm conclusion;
+
+	/** The metavariables of the rule in order of occurrence. */
+	private final IStrategoTerm[] vars;
+
+	/** Number of each metavariable. */
+	private final Map<IStrategoTerm, Integer> varIndex = new HashMap<IStrategoTerm, Integer>();
+
+	/**
+	 * Original position of each premise in execution order or null if the
+	 * premises are executed in their original order.
+	 */
+	private final int[] schedule;
+
+	/**
+	 * Prepares an SXInfRule. Returns null if the term is not an inference
+	 * rule.
+	 */
+	public static SXRule create(IStrategoTerm term) {
+		if (!SXTerms.isAppl(term, "SXInfRule", 3)
+				|| term.getSubterm(0).getTermType() != IStrategoTerm.LIST)
+			return null;
+		return new SXRule(term);
+	}
+
+	private SXRule(IStrategoTerm term) {
+		this.term = term;
+		premises = term.getSubterm(0).getAllSubterms();
+		name = term.getSubterm(1);
+		conclusion = term.getSubterm(2);
+
+		List<IStrategoTerm> vars = new ArrayList<IStrategoTerm>();
+		collectVars(term, vars);
+		this.vars = vars.toArray(new IStrategoTerm[vars.size()]);
+		schedule = computeSchedule();
+	}
+
+	private int[] computeSchedule() {
+		Set<IStrategoTerm> bound = new HashSet<IStrategoTerm>();
+		collectVars(conclusion, bound);
+		boolean[] scheduled = new boolean[premises.length];
+		int[] order = new int[premises.length];
+		boolean identity = true;
+
+		for (int k = 0; k < premises.length; k++) {
+			int next = -1;
+			for (int i = 0; i < premises.length && next < 0; i++)
+				if (!scheduled[i] && inputsBound(premises[i], bound))
+					next = i;
+			if (next < 0)
+				for (int i = 0; i < premises.length && next < 0; i++)
+					if (!scheduled[i])
+						next = i;
+			scheduled[next] = true;
+			order[k] = next;
+			identity &= next == k;
+			collectVars(premises[next], bound);
+		}
+		return identity ? null : order;
+	}
+
+	/**
+	 * Checks if a premise can be executed when the given variables are
+	 * bound. Inductively defined judgements can always be executed,
+	 * primitive judgements only if their input arguments are bound.
+	 */
+	private static boolean inputsBound(IStrategoTerm premise,
+			Set<IStrategoTerm> bound) {
+		for (IStrategoTerm input : primitiveInputs(premise))
+			if (!allBound(input, bound))
+				return false;
+		return true;
+	}
+
+	private static IStrategoTerm[] primitiveInputs(IStrategoTerm premise) {
+		IStrategoTerm[] args = premise.getAllSubterms();
+		if (SXTerms.isAppl(premise, "SXNeq", 2))
+			return args;
+		if (SXTerms.isAppl(premise, "SXConcat", 3))
+			return new IStrategoTerm[] { args[0], args[1] };
+		if (SXTerms.isAppl(premise, "SXSuffix", 2))
+			return new IStrategoTerm[] { args[0] };
+		if (SXTerms.isAppl(premise, "SXGetInterface", 2))
+			return new IStrategoTerm[] { args[1] };
+		if (premise.getTermType() == IStrategoTerm.APPL
+				&& ((IStrategoAppl) premise).getConstructor().getName()
+						.startsWith("SXFreshness") && args.length > 0)
+			return Arrays.copyOfRange(args, 1, args.length);
+		return new IStrategoTerm[0];
+	}
+
+	private static boolean allBound(IStrategoTerm term, Set<IStrategoTerm> bound) {
+		if (SXTerms.isMetaVar(term))
+			return bound.contains(term);
+		for (IStrategoTerm sub : term.getAllSubterms())
+			if (!allBound(sub, bound))
+				return false;
+		return true;
+	}
+
+	private static void collectVars(IStrategoTerm term, Set<IStrategoTerm> vars) {
+		if (SXTerms.isMetaVar(term))
+			vars.add(term);
+		else
+			for (IStrategoTerm sub : term.getAllSubterms())
+				collectVars(sub, vars);
+	}
+
+	private void collectVars(IStrategoTerm term, List<IStrategoTerm> vars) {
+		if (SXTerms.isMetaVar(term)) {
+			if (!varIndex.containsKey(term)) {
+				varIndex.put(term, vars.size());
+				vars.add(term);
+			}
+			return;
+		}
+		for (IStrategoTerm sub : term.getAllSubterms())
+			collectVars(sub, vars);
+	}
+
+	public IStrategoTerm getTerm() {
+		return term;
+	}
+
+	public IStrategoTerm[] getPremises() {
+		return premises;
+	}
+
+	/**
+	 * Returns the original position of each premise in execution order or
+	 * null if the premises are executed in their original order.
+	 */
+	public int[] getSchedule() {
+		return schedule;
+	}
+
+	public IStrategoTerm getName() {
+		return name;
+	}
+
+	public IStrategoTerm getConclusion() {
+		return conclusion;
+	}
+
+	public int getVarCount() {
+		return vars.length;
+	}
+
+	/**
+	 * Returns the number of a metavariable of the rule.
+	 */
+	public int getVarIndex(IStrategoTerm var) {
+		return varIndex.get(var);
+	}
+
+	/**
+	 * Returns the name of the i-th metavariable without its number.
+	 */
+	public IStrategoTerm getVarName(int i) {
+		return vars[i].getSubterm(0);
+	}
+
+	public String getNameString() {
+		return name instanceof IStrategoString ? ((IStrategoString) name)
+				.stringValue() : name.toString();
+	}
+}
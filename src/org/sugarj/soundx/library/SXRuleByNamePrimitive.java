@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Looks up an inference rule by name. The current term is the rule name,
+ * the rule list is passed as term argument. The names of the primitive
+ * judgements always yield their axiom schemes, as built by the
+ * sx-prim-axiom-* strategies. Fails if there is no rule of that name.
+ */
+public class SXRuleByNamePrimitive extends AbstractPrimitive {
+	private static final String FRESHNESS_PREFIX = "_SXFreshness";
+
+	private final SoundXLibrary library;
+
+	/** Axiom schemes of primitive judgements by rule name. */
+	private final Map<String, IStrategoTerm> axioms = new ConcurrentHashMap<String, IStrategoTerm>();
+
+	public SXRuleByNamePrimitive(SoundXLibrary library) {
+		super("SUGARJ_sx_rule_by_name", 0, 1);
+		this.library = library;
+	}
+
+	@Override
+	public boolean call(IContext env, Strategy[] svars, IStrategoTerm[] tvars)
+			throws InterpreterException {
+		if (env.current().getTermType() != IStrategoTerm.STRING
+				|| tvars[0].getTermType() != IStrategoTerm.LIST)
+			return false;
+
+		String name = ((IStrategoString) env.current()).stringValue();
+		IStrategoTerm rule = primitiveAxiom(env.getFactory(), name);
+		if (rule == null)
+			rule = library.getRuleIndices().get((IStrategoList) tvars[0])
+					.getRuleByName(name);
+		if (rule == null)
+			return false;
+		env.setCurrent(rule);
+		return true;
+	}
+
+	private IStrategoTerm primitiveAxiom(ITermFactory factory, String name) {
+		IStrategoTerm axiom = axioms.get(name);
+		if (axiom != null)
+			return axiom;
+
+		if (name.equals("=interface()"))
+			axiom = axiom(factory, name, "SXGetInterface", 2);
+		else if (name.equals("=/="))
+			axiom = axiom(factory, name, "SXNeq", 2);
+		else if (name.equals("concat()="))
+			axiom = axiom(factory, name, "SXConcat", 3);
+		else if (name.equals("suffix()="))
+			axiom = axiom(factory, name, "SXSuffix", 2);
+		else if (name.startsWith(FRESHNESS_PREFIX))
+			axiom = freshnessAxiom(factory, name);
+
+		if (axiom != null)
+			axioms.put(name, axiom);
+		return axiom;
+	}
+
+	/**
+	 * Builds SXInfRule([], name, cons(x, y, ...)).
+	 */
+	private static IStrategoTerm axiom(ITermFactory factory, String name,
+			String cons, int arity) {
+		String[] vars = { "x", "y", "z" };
+		IStrategoTerm[] args = new IStrategoTerm[arity];
+		for (int i = 0; i < arity; i++)
+			args[i] = metaVar(factory, vars[i]);
+		return inferenceRule(factory, name,
+				factory.makeAppl(factory.makeConstructor(cons, arity), args));
+	}
+
+	/**
+	 * Builds SXInfRule([], name, cons(x, x1, ..., xn)) for a rule name
+	 * _SXFreshness<Sort>_<n>, where cons is the name without the leading
+	 * underscore. Returns null if the name does not end with a number.
+	 */
+	private static IStrategoTerm freshnessAxiom(ITermFactory factory,
+			String name) {
+		String tail = name.substring(FRESHNESS_PREFIX.length());
+		int sep = tail.indexOf('_');
+		if (sep < 0)
+			return null;
+		int count;
+		try {
+			count = Integer.parseInt(tail.substring(sep + 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		IStrategoTerm[] args = new IStrategoTerm[Math.max(count, 0) + 1];
+		args[0] = metaVar(factory, "x");
+		for (int i = 1; i < args.length; i++)
+			args[i] = metaVar(factory, "x" + i);
+		String cons = name.substring(1);
+		return inferenceRule(factory, name, factory.makeAppl(
+				factory.makeConstructor(cons, args.length), args));
+	}
+
+	private static IStrategoTerm inferenceRule(ITermFactory factory,
+			String name, IStrategoTerm concl) {
+		return factory.makeAppl(factory.makeConstructor("SXInfRule", 3),
+				factory.makeList(), factory.makeString(name), concl);
+	}
+
+	private static IStrategoTerm metaVar(ITermFactory factory, String name) {
+		return factory.makeAppl(factory.makeConstructor("SXMetaVar", 1),
+				factory.makeString(name));
+	}
+}
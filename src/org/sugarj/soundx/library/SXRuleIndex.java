@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Discrimination tree over the conclusions of a list of inference rules.
+ * The first level discriminates on the judgement constructor, the following
+ * levels on the outermost constructors of the judgement's arguments.
+ * Metavariables in a conclusion are stored as wildcards, metavariables in a
+ * goal follow all branches. Candidates are always returned in the order of
+ * the original rule list such that the search order of the inference engines
+ * does not change.
+ */
+public class SXRuleIndex {
+	private static int nextId = 0;
+
+	/** Unique id of the index, used to key tables on the rule set. */
+	private final int id;
+
+	/** The indexed rule list. */
+	private final IStrategoList rules;
+
+	/** The rules as array for access by position. */
+	private final IStrategoTerm[] ruleArray;
+
+	/** The rules prepared for instantiation. */
+	private final Map<IStrategoTerm, SXRule> prepared = new IdentityHashMap<IStrategoTerm, SXRule>();
+
+	/** Root of the discrimination tree. */
+	private final Node root = new Node();
+
+	/** Positions of rules whose conclusion cannot be indexed. */
+	private final List<Integer> unindexed = new ArrayList<Integer>();
+
+	/** The first rule of each name, built on first lookup by name. */
+	private Map<String, IStrategoTerm> byName;
+
+	private static class Node {
+		Map<String, Node> children = new HashMap<String, Node>();
+		Node wildcard;
+		List<Integer> leaves = new ArrayList<Integer>();
+
+		Node child(String key) {
+			if (key == null) {
+				if (wildcard == null)
+					wildcard = new Node();
+				return wildcard;
+			}
+			Node child = children.get(key);
+			if (child == null) {
+				child = new Node();
+				children.put(key, child);
+			}
+			return child;
+		}
+	}
+
+	public SXRuleIndex(IStrategoList rules) {
+		synchronized (SXRuleIndex.class) {
+			id = nextId++;
+		}
+		this.rules = rules;
+		ruleArray = rules.getAllSubterms();
+		for (int i = 0; i < ruleArray.length; i++) {
+			insert(i, conclusion(ruleArray[i]));
+			SXRule rule = SXRule.create(ruleArray[i]);
+			if (rule != null)
+				prepared.put(ruleArray[i], rule);
+		}
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public IStrategoList getRules() {
+		return rules;
+	}
+
+	public int size() {
+		return ruleArray.length;
+	}
+
+	public IStrategoTerm getRule(int position) {
+		return ruleArray[position];
+	}
+
+	/**
+	 * Returns the prepared rule for a rule of the indexed list. Rules that
+	 * are not in the list are prepared on demand.
+	 */
+	public SXRule getPreparedRule(IStrategoTerm rule) {
+		SXRule prep = prepared.get(rule);
+		return prep == null ? SXRule.create(rule) : prep;
+	}
+
+	/**
+	 * Returns the first rule of the indexed list with the given name or null
+	 * if there is none.
+	 */
+	public synchronized IStrategoTerm getRuleByName(String name) {
+		if (byName == null) {
+			byName = new HashMap<String, IStrategoTerm>();
+			for (IStrategoTerm rule : ruleArray)
+				if (SXTerms.isAppl(rule, "SXInfRule", 3)
+						&& rule.getSubterm(1).getTermType() == IStrategoTerm.STRING) {
+					String ruleName = ((IStrategoString) rule.getSubterm(1))
+							.stringValue();
+					if (!byName.containsKey(ruleName))
+						byName.put(ruleName, rule);
+				}
+		}
+		return byName.get(name);
+	}
+
+	/**
+	 * Returns the conclusion of an SXInfRule or null if the term is not
+	 * an inference rule.
+	 */
+	static IStrategoTerm conclusion(IStrategoTerm rule) {
+		if (SXTerms.isAppl(rule, "SXInfRule", 3))
+			return rule.getSubterm(2);
+		return null;
+	}
+
+	private void insert(int position, IStrategoTerm concl) {
+		if (concl == null || SXTerms.isMetaVar(concl)
+				|| concl.getTermType() != IStrategoTerm.APPL) {
+			unindexed.add(position);
+			return;
+		}
+		Node node = root.child(key(concl));
+		for (IStrategoTerm arg : concl.getAllSubterms())
+			node = node.child(key(arg));
+		node.leaves.add(position);
+	}
+
+	/**
+	 * Returns the key of the outermost constructor of a term or null for a
+	 * metavariable or a term that is not discriminated.
+	 */
+	static String key(IStrategoTerm term) {
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			if (SXTerms.isMetaVar(term))
+				return null;
+			IStrategoAppl appl = (IStrategoAppl) term;
+			return appl.getConstructor().getName() + "/"
+					+ appl.getConstructor().getArity();
+		case IStrategoTerm.STRING:
+			return "\"" + ((IStrategoString) term).stringValue();
+		case IStrategoTerm.INT:
+			return "#" + ((IStrategoInt) term).intValue();
+		case IStrategoTerm.LIST:
+			return "[]/" + term.getSubtermCount();
+		case IStrategoTerm.TUPLE:
+			return "()/" + term.getSubtermCount();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the positions of all rules whose conclusion may unify with the
+	 * goal in ascending order.
+	 */
+	public int[] candidatePositions(IStrategoTerm goal) {
+		List<Integer> found = new ArrayList<Integer>(unindexed);
+		if (goal.getTermType() == IStrategoTerm.APPL && !SXTerms.isMetaVar(goal)) {
+			IStrategoTerm[] path = goal.getAllSubterms();
+			Node judgNode = root.children.get(key(goal));
+			if (judgNode != null)
+				collect(judgNode, path, 0, found);
+			if (root.wildcard != null)
+				collect(root.wildcard, path, 0, found);
+		} else {
+			for (int i = 0; i < ruleArray.length; i++)
+				found.add(i);
+		}
+
+		int[] positions = new int[found.size()];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = found.get(i);
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	private void collect(Node node, IStrategoTerm[] path, int depth,
+			List<Integer> found) {
+		if (depth == path.length) {
+			found.addAll(node.leaves);
+			return;
+		}
+		String key = key(path[depth]);
+		if (key == null) {
+			for (Node child : node.children.values())
+				collect(child, path, depth + 1, found);
+		} else {
+			Node child = node.children.get(key);
+			if (child != null)
+				collect(child, path, depth + 1, found);
+		}
+		if (node.wildcard != null)
+			collect(node.wildcard, path, depth + 1, found);
+	}
+
+	/**
+	 * Returns the list of candidate rules for the goal in the order of the
+	 * original rule list.
+	 */
+	public IStrategoList candidates(ITermFactory factory, IStrategoTerm goal) {
+		int[] positions = candidatePositions(goal);
+		if (positions.length == ruleArray.length)
+			return rules;
+		IStrategoTerm[] candidates = new IStrategoTerm[positions.length];
+		for (int i = 0; i < positions.length; i++)
+			candidates[i] = ruleArray[positions[i]];
+		return factory.makeList(candidates);
+	}
+}
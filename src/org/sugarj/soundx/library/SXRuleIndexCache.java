@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.spoofax.interpreter.terms.IStrategoList;
+
+/**
+ * Cache of rule indices keyed by the indexed rule list. The engines pass the
+ * same rule list for every goal of a search, so the most recently used index
+ * is checked by identity first. Equal rule lists that are rebuilt between
+ * searches are found by term equality.
+ */
+public class SXRuleIndexCache {
+	private static final int MAX_ENTRIES = 32;
+
+	private SXRuleIndex last;
+
+	private final Map<IStrategoList, SXRuleIndex> indices = new LinkedHashMap<IStrategoList, SXRuleIndex>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = -1385017268530232196L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<IStrategoList, SXRuleIndex> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * Returns the index for the rule list and builds it if necessary.
+	 */
+	public synchronized SXRuleIndex get(IStrategoList rules) {
+		if (last != null && last.getRules() == rules)
+			return last;
+
+		SXRuleIndex index = indices.get(rules);
+		if (index == null) {
+			index = new SXRuleIndex(rules);
+			indices.put(rules, index);
+		}
+		last = index;
+		return index;
+	}
+
+	public synchronized void clear() {
+		last = null;
+		indices.clear();
+	}
+}
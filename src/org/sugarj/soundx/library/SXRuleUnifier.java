@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Unifies a goal with the conclusion of an inference rule without renaming
+ * the rule first. Terms of the goal and of the rule are kept apart by a side
+ * flag. The metavariables of the rule are bound in a frame indexed by their
+ * number, the metavariables of the goal in a triangular substitution.
+ *
+ * Fresh metavariables for the rule are only created when the unification
+ * succeeded and then only for variables that are not bound. They are
+ * SXMetaVarGen with negative numbers, so they never clash with the ones
+ * created by sx-fresh-metavar. The numbers are reserved from the library,
+ * which starts counting anew for each analysis.
+ *
+ * The order of the pairs is the same as in sx-unify, such that the same
+ * variables get bound as with a renamed rule.
+ */
+public class SXRuleUnifier {
+	private static final boolean GOAL = false;
+	private static final boolean RULE = true;
+
+	private static class Binding {
+		final IStrategoTerm term;
+		final boolean side;
+		IStrategoTerm materialized;
+
+		Binding(IStrategoTerm term, boolean side) {
+			this.term = term;
+			this.side = side;
+		}
+	}
+
+	private final ITermFactory factory;
+	private final SoundXLibrary library;
+	private final SXRule rule;
+	private final Set<IStrategoTerm> rigidVars;
+
+	private final Binding[] frame;
+	private Map<IStrategoTerm, Binding> goalBindings;
+	private IStrategoTerm[] freshVars;
+	private int freshBase = -1;
+
+	private IStrategoTerm[] stackTerms = new IStrategoTerm[16];
+	private boolean[] stackSides = new boolean[16];
+	private int stackSize = 0;
+
+	/** Result of walk. */
+	private IStrategoTerm walkedTerm;
+	private boolean walkedSide;
+
+	public SXRuleUnifier(ITermFactory factory, SoundXLibrary library,
+			SXRule rule, Set<IStrategoTerm> rigidVars) {
+		this.factory = factory;
+		this.library = library;
+		this.rule = rule;
+		this.rigidVars = rigidVars;
+		frame = new Binding[rule.getVarCount()];
+	}
+
+	private void push(IStrategoTerm term, boolean side) {
+		if (stackSize == stackTerms.length) {
+			IStrategoTerm[] terms = new IStrategoTerm[stackSize * 2];
+			boolean[] sides = new boolean[stackSize * 2];
+			System.arraycopy(stackTerms, 0, terms, 0, stackSize);
+			System.arraycopy(stackSides, 0, sides, 0, stackSize);
+			stackTerms = terms;
+			stackSides = sides;
+		}
+		stackTerms[stackSize] = term;
+		stackSides[stackSize] = side;
+		stackSize++;
+	}
+
+	private Binding lookup(IStrategoTerm var, boolean side) {
+		if (side == RULE)
+			return frame[rule.getVarIndex(var)];
+		return goalBindings == null ? null : goalBindings.get(var);
+	}
+
+	private void walk(IStrategoTerm term, boolean side) {
+		while (SXTerms.isMetaVar(term)) {
+			Binding binding = lookup(term, side);
+			if (binding == null)
+				break;
+			term = binding.term;
+			side = binding.side;
+		}
+		walkedTerm = term;
+		walkedSide = side;
+	}
+
+	private boolean isUnificationVar(IStrategoTerm var, boolean side) {
+		return side == RULE || !rigidVars.contains(var);
+	}
+
+	private void bind(IStrategoTerm var, boolean varSide, IStrategoTerm term,
+			boolean side) {
+		Binding binding = new Binding(term, side);
+		if (varSide == RULE)
+			frame[rule.getVarIndex(var)] = binding;
+		else {
+			if (goalBindings == null)
+				goalBindings = new HashMap<IStrategoTerm, Binding>();
+			goalBindings.put(var, binding);
+		}
+	}
+
+	/**
+	 * Unifies the goal with the conclusion of the rule. If goalFirst is set,
+	 * the goal is the left expression as in sx-unify, otherwise the
+	 * conclusion.
+	 */
+	public boolean unify(IStrategoTerm goal, boolean goalFirst) {
+		if (goalFirst) {
+			push(rule.getConclusion(), RULE);
+			push(goal, GOAL);
+		} else {
+			push(goal, GOAL);
+			push(rule.getConclusion(), RULE);
+		}
+
+		while (stackSize > 0) {
+			stackSize--;
+			walk(stackTerms[stackSize], stackSides[stackSize]);
+			IStrategoTerm expr1 = walkedTerm;
+			boolean side1 = walkedSide;
+			stackSize--;
+			walk(stackTerms[stackSize], stackSides[stackSize]);
+			IStrategoTerm expr2 = walkedTerm;
+			boolean side2 = walkedSide;
+			stackTerms[stackSize] = null;
+			stackTerms[stackSize + 1] = null;
+
+			boolean isVar1 = SXTerms.isMetaVar(expr1);
+			boolean isVar2 = SXTerms.isMetaVar(expr2);
+			if (isVar1 && isVar2) {
+				if (side1 == side2 && expr1.equals(expr2))
+					continue;
+				if (isUnificationVar(expr1, side1))
+					bind(expr1, side1, expr2, side2);
+				else if (isUnificationVar(expr2, side2))
+					bind(expr2, side2, expr1, side1);
+				else
+					return false;
+			} else if (isVar1 || isVar2) {
+				IStrategoTerm var = isVar1 ? expr1 : expr2;
+				boolean varSide = isVar1 ? side1 : side2;
+				IStrategoTerm expr = isVar1 ? expr2 : expr1;
+				boolean side = isVar1 ? side2 : side1;
+				if (!isUnificationVar(var, varSide)
+						|| occurs(var, varSide, expr, side))
+					return false;
+				bind(var, varSide, expr, side);
+			} else {
+				if (!SXUnifier.sameConstructorName(expr1, expr2)
+						|| expr1.getSubtermCount() != expr2.getSubtermCount())
+					return false;
+				for (int i = expr1.getSubtermCount() - 1; i >= 0; i--) {
+					push(expr2.getSubterm(i), side2);
+					push(expr1.getSubterm(i), side1);
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean occurs(IStrategoTerm var, boolean varSide,
+			IStrategoTerm term, boolean side) {
+		walk(term, side);
+		term = walkedTerm;
+		side = walkedSide;
+		if (side == varSide && term.equals(var))
+			return true;
+		if (SXTerms.isMetaVar(term))
+			return false;
+		for (IStrategoTerm sub : term.getAllSubterms())
+			if (occurs(var, varSide, sub, side))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Builds a term with all bound metavariables substituted and the unbound
+	 * rule variables replaced by fresh ones.
+	 */
+	private IStrategoTerm materialize(IStrategoTerm term, boolean side) {
+		if (SXTerms.isMetaVar(term)) {
+			Binding binding = lookup(term, side);
+			if (binding != null) {
+				if (binding.materialized == null)
+					binding.materialized = materialize(binding.term,
+							binding.side);
+				return binding.materialized;
+			}
+			return side == RULE ? freshVar(rule.getVarIndex(term)) : term;
+		}
+
+		int arity = term.getSubtermCount();
+		if (arity == 0)
+			return term;
+		IStrategoTerm[] args = null;
+		for (int i = 0; i < arity; i++) {
+			IStrategoTerm arg = term.getSubterm(i);
+			IStrategoTerm arg1 = materialize(arg, side);
+			if (arg1 != arg) {
+				if (args == null)
+					args = term.getAllSubterms().clone();
+				args[i] = arg1;
+			}
+		}
+		if (args == null)
+			return term;
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			return factory.makeAppl(((IStrategoAppl) term).getConstructor(),
+					args, term.getAnnotations());
+		case IStrategoTerm.LIST:
+			return factory.makeList(args, term.getAnnotations());
+		case IStrategoTerm.TUPLE:
+			return factory.makeTuple(args, term.getAnnotations());
+		default:
+			return term;
+		}
+	}
+
+	private IStrategoTerm freshVar(int index) {
+		if (freshVars == null) {
+			freshVars = new IStrategoTerm[frame.length];
+			freshBase = library.reserveFreshNumbers(frame.length);
+		}
+		if (freshVars[index] == null)
+			freshVars[index] = factory.makeAppl(
+					factory.makeConstructor("SXMetaVarGen", 2),
+					rule.getVarName(index),
+					factory.makeInt(-(freshBase + index + 1)));
+		return freshVars[index];
+	}
+
+	/**
+	 * Returns the premises of the rule instantiated with the unifier. If
+	 * scheduled is set, the premises are returned in the execution order of
+	 * the rule.
+	 */
+	public IStrategoTerm getPremises(boolean scheduled) {
+		IStrategoTerm[] premises = rule.getPremises();
+		int[] schedule = scheduled ? rule.getSchedule() : null;
+		IStrategoTerm[] instantiated = new IStrategoTerm[premises.length];
+		for (int i = 0; i < premises.length; i++)
+			instantiated[i] = materialize(premises[schedule == null ? i
+					: schedule[i]], RULE);
+		return factory.makeList(instantiated);
+	}
+
+	/**
+	 * Returns the unifier restricted to the metavariables of the goal.
+	 */
+	public SXSubstitution getGoalSubstitution() {
+		SXSubstitution sub = SXSubstitution.EMPTY;
+		if (goalBindings != null)
+			for (IStrategoTerm var : goalBindings.keySet())
+				sub = sub.extend(var, materialize(var, GOAL));
+		return sub;
+	}
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Persistent substitution from metavariables to terms. It is stored as a
+ * hash array mapped trie, so extending a substitution shares all existing
+ * bindings and only copies the path to the new binding. Composition is
+ * lazy: the composed substitution is computed when it is accessed for the
+ * first time and computes the bindings of the inner substitution only, the
+ * bindings of the outer one are shared.
+ *
+ * Substitutions are passed through Stratego code as blob terms and
+ * manipulated with the sx-sub-* strategies.
+ */
+public class SXSubstitution extends SXBlobTerm {
+	private static final long serialVersionUID = 2806462839012657322L;
+
+	public static final SXSubstitution EMPTY = new SXSubstitution(null, 0);
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	/** Root of the trie, null for the empty substitution. */
+	private Node root;
+	private int size;
+
+	/** Operands of a composition that has not been computed yet. */
+	private SXSubstitution outer;
+	private SXSubstitution inner;
+	private ITermFactory factory;
+
+	private SXSubstitution(Node root, int size) {
+		super(IStrategoTerm.IMMUTABLE);
+		this.root = root;
+		this.size = size;
+	}
+
+	private SXSubstitution(SXSubstitution outer, SXSubstitution inner,
+			ITermFactory factory) {
+		super(IStrategoTerm.IMMUTABLE);
+		this.outer = outer;
+		this.inner = inner;
+		this.factory = factory;
+	}
+
+	private static final class Entry {
+		final IStrategoTerm var;
+		final IStrategoTerm expr;
+		final int hash;
+
+		Entry(IStrategoTerm var, IStrategoTerm expr, int hash) {
+			this.var = var;
+			this.expr = expr;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Trie node. A slot holds an Entry or a Node. Below the last level all
+	 * colliding entries are kept in one node with a full bitmap.
+	 */
+	private static final class Node {
+		final int bitmap;
+		final Object[] slots;
+
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		Entry get(IStrategoTerm var, int hash, int shift) {
+			if (shift >= 32) {
+				for (Object slot : slots)
+					if (((Entry) slot).var.equals(var))
+						return (Entry) slot;
+				return null;
+			}
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0)
+				return null;
+			Object slot = slots[Integer.bitCount(bitmap & (bit - 1))];
+			if (slot instanceof Node)
+				return ((Node) slot).get(var, hash, shift + BITS);
+			Entry entry = (Entry) slot;
+			return entry.hash == hash && entry.var.equals(var) ? entry : null;
+		}
+
+		/**
+		 * Returns a node with the entry added or replaced. added[0] is set if
+		 * the variable was not bound before.
+		 */
+		Node put(Entry entry, int shift, boolean[] added) {
+			if (shift >= 32) {
+				for (int i = 0; i < slots.length; i++)
+					if (((Entry) slots[i]).var.equals(entry.var))
+						return new Node(bitmap, replace(slots, i, entry));
+				added[0] = true;
+				return new Node(bitmap, insert(slots, slots.length, entry));
+			}
+			int bit = 1 << ((entry.hash >>> shift) & MASK);
+			int index = Integer.bitCount(bitmap & (bit - 1));
+			if ((bitmap & bit) == 0) {
+				added[0] = true;
+				return new Node(bitmap | bit, insert(slots, index, entry));
+			}
+			Object slot = slots[index];
+			if (slot instanceof Node)
+				return new Node(bitmap, replace(slots, index,
+						((Node) slot).put(entry, shift + BITS, added)));
+			Entry other = (Entry) slot;
+			if (other.hash == entry.hash && other.var.equals(entry.var))
+				return new Node(bitmap, replace(slots, index, entry));
+			added[0] = true;
+			Node child = single(other, shift + BITS).put(entry, shift + BITS,
+					added);
+			return new Node(bitmap, replace(slots, index, child));
+		}
+
+		static Node single(Entry entry, int shift) {
+			if (shift >= 32)
+				return new Node(-1, new Object[] { entry });
+			return new Node(1 << ((entry.hash >>> shift) & MASK),
+					new Object[] { entry });
+		}
+
+		void collect(List<Entry> entries) {
+			for (Object slot : slots)
+				if (slot instanceof Node)
+					((Node) slot).collect(entries);
+				else
+					entries.add((Entry) slot);
+		}
+
+		private static Object[] replace(Object[] slots, int index, Object slot) {
+			Object[] slots1 = slots.clone();
+			slots1[index] = slot;
+			return slots1;
+		}
+
+		private static Object[] insert(Object[] slots, int index, Object slot) {
+			Object[] slots1 = new Object[slots.length + 1];
+			System.arraycopy(slots, 0, slots1, 0, index);
+			slots1[index] = slot;
+			System.arraycopy(slots, index, slots1, index + 1, slots.length
+					- index);
+			return slots1;
+		}
+	}
+
+	/**
+	 * Computes a pending composition.
+	 */
+	private synchronized void force() {
+		if (outer == null)
+			return;
+
+		SXSubstitution result = outer;
+		for (Entry entry : inner.entries())
+			result = result.extend(entry.var, outer.apply(factory, entry.expr));
+		root = result.root;
+		size = result.size;
+		outer = null;
+		inner = null;
+		factory = null;
+	}
+
+	private Node root() {
+		force();
+		return root;
+	}
+
+	public int size() {
+		force();
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the expression bound to var or null.
+	 */
+	public IStrategoTerm get(IStrategoTerm var) {
+		Node root = root();
+		if (root == null)
+			return null;
+		Entry entry = root.get(var, var.hashCode(), 0);
+		return entry == null ? null : entry.expr;
+	}
+
+	/**
+	 * Returns a substitution that additionally binds var to expr. An
+	 * existing binding of var is replaced.
+	 */
+	public SXSubstitution extend(IStrategoTerm var, IStrategoTerm expr) {
+		Entry entry = new Entry(var, expr, var.hashCode());
+		Node root = root();
+		if (root == null)
+			return new SXSubstitution(Node.single(entry, 0), 1);
+		boolean[] added = new boolean[1];
+		Node root1 = root.put(entry, 0, added);
+		return new SXSubstitution(root1, added[0] ? size + 1 : size);
+	}
+
+	private List<Entry> entries() {
+		List<Entry> entries = new ArrayList<Entry>(size());
+		if (root != null)
+			root.collect(entries);
+		return entries;
+	}
+
+	/**
+	 * Returns outer o inner without computing it.
+	 */
+	public static SXSubstitution compose(ITermFactory factory,
+			SXSubstitution outer, SXSubstitution inner) {
+		if (inner.isEmpty())
+			return outer;
+		if (outer.isEmpty())
+			return inner;
+		return new SXSubstitution(outer, inner, factory);
+	}
+
+	/**
+	 * Returns the union of both substitutions or null if a variable is
+	 * bound to different expressions.
+	 */
+	public static SXSubstitution union(SXSubstitution sub1,
+			SXSubstitution sub2) {
+		if (sub1.isEmpty())
+			return sub2;
+		if (sub2.isEmpty())
+			return sub1;
+		SXSubstitution larger = sub1.size() >= sub2.size() ? sub1 : sub2;
+		SXSubstitution smaller = larger == sub1 ? sub2 : sub1;
+		SXSubstitution result = larger;
+		for (Entry entry : smaller.entries()) {
+			IStrategoTerm expr = larger.get(entry.var);
+			if (expr == null)
+				result = result.extend(entry.var, entry.expr);
+			else if (!expr.equals(entry.expr))
+				return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the substitution restricted to the given variables.
+	 */
+	public SXSubstitution restrict(Set<IStrategoTerm> vars) {
+		SXSubstitution result = EMPTY;
+		for (Entry entry : entries())
+			if (vars.contains(entry.var))
+				result = result.extend(entry.var, entry.expr);
+		return result.size() == size() ? this : result;
+	}
+
+	/**
+	 * Replaces the metavariables of a term that are bound by the
+	 * substitution. The expressions bound are not substituted again.
+	 */
+	public IStrategoTerm apply(ITermFactory factory, IStrategoTerm term) {
+		if (isEmpty())
+			return term;
+		if (SXTerms.isMetaVar(term)) {
+			IStrategoTerm expr = get(term);
+			return expr == null ? term : expr;
+		}
+		int arity = term.getSubtermCount();
+		if (arity == 0)
+			return term;
+		IStrategoTerm[] args = null;
+		for (int i = 0; i < arity; i++) {
+			IStrategoTerm arg = term.getSubterm(i);
+			IStrategoTerm arg1 = apply(factory, arg);
+			if (arg1 != arg) {
+				if (args == null)
+					args = term.getAllSubterms().clone();
+				args[i] = arg1;
+			}
+		}
+		if (args == null)
+			return term;
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			return factory.makeAppl(((IStrategoAppl) term).getConstructor(),
+					args, term.getAnnotations());
+		case IStrategoTerm.LIST:
+			return factory.makeList(args, term.getAnnotations());
+		case IStrategoTerm.TUPLE:
+			return factory.makeTuple(args, term.getAnnotations());
+		default:
+			return term;
+		}
+	}
+
+	public static SXSubstitution fromList(IStrategoTerm pairs) {
+		SXSubstitution result = EMPTY;
+		for (IStrategoTerm pair : pairs.getAllSubterms())
+			result = result.extend(pair.getSubterm(0), pair.getSubterm(1));
+		return result;
+	}
+
+	/**
+	 * Returns the bindings as list of pairs (var, expr).
+	 */
+	public IStrategoList toList(ITermFactory factory) {
+		List<Entry> entries = entries();
+		IStrategoTerm[] pairs = new IStrategoTerm[entries.size()];
+		for (int i = 0; i < pairs.length; i++)
+			pairs[i] = factory.makeTuple(entries.get(i).var,
+					entries.get(i).expr);
+		return factory.makeList(pairs);
+	}
+
+	public IStrategoList domain(ITermFactory factory) {
+		List<Entry> entries = entries();
+		IStrategoTerm[] vars = new IStrategoTerm[entries.size()];
+		for (int i = 0; i < vars.length; i++)
+			vars[i] = entries.get(i).var;
+		return factory.makeList(vars);
+	}
+
+	public IStrategoList range(ITermFactory factory) {
+		List<Entry> entries = entries();
+		IStrategoTerm[] exprs = new IStrategoTerm[entries.size()];
+		for (int i = 0; i < exprs.length; i++)
+			exprs[i] = entries.get(i).expr;
+		return factory.makeList(exprs);
+	}
+
+	@Override
+	protected boolean doSlowMatch(IStrategoTerm second, int commonStorageType) {
+		if (!(second instanceof SXSubstitution))
+			return false;
+		SXSubstitution other = (SXSubstitution) second;
+		if (size() != other.size())
+			return false;
+		for (Entry entry : entries()) {
+			IStrategoTerm expr = other.get(entry.var);
+			if (expr == null || !expr.equals(entry.expr))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected int hashFunction() {
+		int hash = 0;
+		for (Entry entry : entries())
+			hash += entry.hash ^ entry.expr.hashCode();
+		return hash;
+	}
+
+	@Override
+	public void writeAsString(Appendable output, int maxDepth)
+			throws IOException {
+		output.append("SXSub(");
+		boolean first = true;
+		for (Entry entry : entries()) {
+			if (!first)
+				output.append(",");
+			first = false;
+			output.append("(");
+			output.append(entry.var.toString(maxDepth));
+			output.append(",");
+			output.append(entry.expr.toString(maxDepth));
+			output.append(")");
+		}
+		output.append(")");
+	}
+}
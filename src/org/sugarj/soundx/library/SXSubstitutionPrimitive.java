@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Primitives behind the sx-sub-* strategies. All primitives take their
+ * arguments as current term, like the strategies in Substitution.str.
+ */
+public abstract class SXSubstitutionPrimitive extends AbstractPrimitive {
+	protected SXSubstitutionPrimitive(String name) {
+		super(name, 0, 0);
+	}
+
+	@Override
+	public boolean call(IContext env, Strategy[] svars, IStrategoTerm[] tvars)
+			throws InterpreterException {
+		IStrategoTerm result = call(env, env.current());
+		if (result == null)
+			return false;
+		env.setCurrent(result);
+		return true;
+	}
+
+	/**
+	 * Computes the result of the primitive or returns null to fail.
+	 */
+	protected abstract IStrategoTerm call(IContext env, IStrategoTerm current);
+
+	/**
+	 * Returns the term as substitution or null if it is none.
+	 */
+	protected static SXSubstitution sub(IStrategoTerm term) {
+		return term instanceof SXSubstitution ? (SXSubstitution) term : null;
+	}
+
+	protected static boolean isPair(IStrategoTerm term) {
+		return term.getTermType() == IStrategoTerm.TUPLE
+				&& term.getSubtermCount() == 2;
+	}
+
+	/**
+	 * Registers all substitution primitives with the library.
+	 */
+	public static void addTo(SoundXLibrary library) {
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_empty") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				return SXSubstitution.EMPTY;
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_singleton") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (!isPair(current))
+					return null;
+				return SXSubstitution.EMPTY.extend(current.getSubterm(0),
+						current.getSubterm(1));
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_extend") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (current.getTermType() != IStrategoTerm.TUPLE
+						|| current.getSubtermCount() != 3)
+					return null;
+				SXSubstitution sub = sub(current.getSubterm(0));
+				if (sub == null)
+					return null;
+				return sub.extend(current.getSubterm(1), current.getSubterm(2));
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_from_list") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (current.getTermType() != IStrategoTerm.LIST)
+					return null;
+				for (IStrategoTerm pair : current.getAllSubterms())
+					if (!isPair(pair))
+						return null;
+				return SXSubstitution.fromList(current);
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_to_list") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				SXSubstitution sub = sub(current);
+				return sub == null ? null : sub.toList(env.getFactory());
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_dom") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				SXSubstitution sub = sub(current);
+				return sub == null ? null : sub.domain(env.getFactory());
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_ran") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				SXSubstitution sub = sub(current);
+				return sub == null ? null : sub.range(env.getFactory());
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_get") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (!isPair(current))
+					return null;
+				SXSubstitution sub = sub(current.getSubterm(0));
+				return sub == null ? null : sub.get(current.getSubterm(1));
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_apply") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (!isPair(current))
+					return null;
+				SXSubstitution sub = sub(current.getSubterm(0));
+				if (sub == null)
+					return null;
+				return sub.apply(env.getFactory(), current.getSubterm(1));
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_compose") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (!isPair(current))
+					return null;
+				SXSubstitution sub1 = sub(current.getSubterm(0));
+				SXSubstitution sub2 = sub(current.getSubterm(1));
+				if (sub1 == null || sub2 == null)
+					return null;
+				return SXSubstitution.compose(env.getFactory(), sub1, sub2);
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_union") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (!isPair(current))
+					return null;
+				SXSubstitution sub1 = sub(current.getSubterm(0));
+				SXSubstitution sub2 = sub(current.getSubterm(1));
+				if (sub1 == null || sub2 == null)
+					return null;
+				return SXSubstitution.union(sub1, sub2);
+			}
+		});
+		library.add(new SXSubstitutionPrimitive("SUGARJ_sx_sub_restrict") {
+			@Override
+			protected IStrategoTerm call(IContext env, IStrategoTerm current) {
+				if (!isPair(current))
+					return null;
+				SXSubstitution sub = sub(current.getSubterm(0));
+				if (sub == null)
+					return null;
+				return sub.restrict(new HashSet<IStrategoTerm>(Arrays
+						.asList(current.getSubterm(1).getAllSubterms())));
+			}
+		});
+	}
+}
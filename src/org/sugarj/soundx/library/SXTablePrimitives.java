@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Primitives for tabling in the depth-first engine.
+ */
+public class SXTablePrimitives {
+	private SXTablePrimitives() {
+	}
+
+	/**
+	 * Checks that a term contains no metavariables except the rigid ones
+	 * passed as term argument.
+	 */
+	private static class IsGround extends AbstractPrimitive {
+		IsGround() {
+			super("SUGARJ_sx_is_ground", 0, 1);
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			Set<IStrategoTerm> rigidVars = new HashSet<IStrategoTerm>(
+					Arrays.asList(tvars[0].getAllSubterms()));
+			return isGround(env.current(), rigidVars);
+		}
+
+		private static boolean isGround(IStrategoTerm term,
+				Set<IStrategoTerm> rigidVars) {
+			if (SXTerms.isMetaVar(term))
+				return rigidVars.contains(term);
+			for (IStrategoTerm sub : term.getAllSubterms())
+				if (!isGround(sub, rigidVars))
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * Looks up the answer for (asms, goal). The term argument are the
+	 * inference rules. Fails if there is no answer.
+	 */
+	private static class Lookup extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Lookup(SoundXLibrary library) {
+			super("SUGARJ_sx_table_lookup", 0, 1);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			IStrategoTerm current = env.current();
+			if (tvars[0].getTermType() != IStrategoTerm.LIST
+					|| current.getSubtermCount() != 2)
+				return false;
+			int rulesId = library.getRuleIndices()
+					.get((IStrategoList) tvars[0]).getId();
+			IStrategoTerm answer = library.getAnswerTable().lookup(rulesId,
+					current.getSubterm(0), current.getSubterm(1));
+			if (answer == null)
+				return false;
+			env.setCurrent(answer);
+			return true;
+		}
+	}
+
+	/**
+	 * Stores the current term as answer. The term arguments are the
+	 * inference rules, the assumptions and the goal.
+	 */
+	private static class Store extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Store(SoundXLibrary library) {
+			super("SUGARJ_sx_table_store", 0, 3);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			if (tvars[0].getTermType() != IStrategoTerm.LIST)
+				return false;
+			int rulesId = library.getRuleIndices()
+					.get((IStrategoList) tvars[0]).getId();
+			library.getAnswerTable().store(rulesId, tvars[1], tvars[2],
+					env.current());
+			return true;
+		}
+	}
+
+	/**
+	 * Removes all answers.
+	 */
+	private static class Clear extends AbstractPrimitive {
+		private final SoundXLibrary library;
+
+		Clear(SoundXLibrary library) {
+			super("SUGARJ_sx_table_clear", 0, 0);
+			this.library = library;
+		}
+
+		@Override
+		public boolean call(IContext env, Strategy[] svars,
+				IStrategoTerm[] tvars) throws InterpreterException {
+			library.getAnswerTable().clear();
+			return true;
+		}
+	}
+
+	/**
+	 * Registers the tabling primitives with the library.
+	 */
+	public static void addTo(SoundXLibrary library) {
+		library.add(new IsGround());
+		library.add(new Lookup(library));
+		library.add(new Store(library));
+		library.add(new Clear(library));
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoList;
+import org.spoofax.interpreter.terms.IStrategoReal;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Helpers to inspect SoundX terms from Java and to compute the hashes the
+ * caches are keyed by.
+ */
+public class SXTerms {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private SXTerms() {
+	}
+
+	/**
+	 * Checks if a term is an application of the given constructor.
+	 */
+	public static boolean isAppl(IStrategoTerm term, String name, int arity) {
+		if (term.getTermType() != IStrategoTerm.APPL)
+			return false;
+		IStrategoAppl appl = (IStrategoAppl) term;
+		return appl.getConstructor().getArity() == arity
+				&& appl.getConstructor().getName().equals(name);
+	}
+
+	/**
+	 * Checks if a term is an SXMetaVar or SXMetaVarGen.
+	 */
+	public static boolean isMetaVar(IStrategoTerm term) {
+		return isAppl(term, "SXMetaVar", 1) || isAppl(term, "SXMetaVarGen", 2);
+	}
+
+	/**
+	 * Renames the metavariables of a term consistently by their order of
+	 * occurrence, such that two terms are equal iff they are variants.
+	 */
+	public static IStrategoTerm canonicalize(ITermFactory factory,
+			IStrategoTerm term) {
+		return canonicalize(factory, term,
+				new HashMap<IStrategoTerm, IStrategoTerm>());
+	}
+
+	private static IStrategoTerm canonicalize(ITermFactory factory,
+			IStrategoTerm term, Map<IStrategoTerm, IStrategoTerm> renaming) {
+		if (isMetaVar(term)) {
+			IStrategoTerm var = renaming.get(term);
+			if (var == null) {
+				var = factory.makeAppl(
+						factory.makeConstructor("SXMetaVarGen", 2),
+						factory.makeString(""),
+						factory.makeInt(renaming.size()));
+				renaming.put(term, var);
+			}
+			return var;
+		}
+		int arity = term.getSubtermCount();
+		if (arity == 0)
+			return term;
+		IStrategoTerm[] args = new IStrategoTerm[arity];
+		for (int i = 0; i < arity; i++)
+			args[i] = canonicalize(factory, term.getSubterm(i), renaming);
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			return factory.makeAppl(((IStrategoAppl) term).getConstructor(),
+					args);
+		case IStrategoTerm.LIST:
+			return factory.makeList(args);
+		case IStrategoTerm.TUPLE:
+			return factory.makeTuple(args);
+		default:
+			return term;
+		}
+	}
+
+	/**
+	 * Rebuilds a term and its annotations with the factory. The copy carries
+	 * no attachments, such as the origin information added by the parser.
+	 */
+	public static IStrategoTerm copy(ITermFactory factory, IStrategoTerm term) {
+		IStrategoTerm result;
+		int arity = term.getSubtermCount();
+		IStrategoTerm[] args = new IStrategoTerm[arity];
+		for (int i = 0; i < arity; i++)
+			args[i] = copy(factory, term.getSubterm(i));
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			result = factory.makeAppl(((IStrategoAppl) term).getConstructor(),
+					args);
+			break;
+		case IStrategoTerm.LIST:
+			result = factory.makeList(args);
+			break;
+		case IStrategoTerm.TUPLE:
+			result = factory.makeTuple(args);
+			break;
+		case IStrategoTerm.STRING:
+			result = factory.makeString(((IStrategoString) term)
+					.stringValue());
+			break;
+		case IStrategoTerm.INT:
+			result = factory.makeInt(((IStrategoInt) term).intValue());
+			break;
+		case IStrategoTerm.REAL:
+			result = factory.makeReal(((IStrategoReal) term).realValue());
+			break;
+		default:
+			return term;
+		}
+		if (term.getAnnotations().isEmpty())
+			return result;
+		return factory.annotateTerm(result,
+				(IStrategoList) copy(factory, term.getAnnotations()));
+	}
+
+	/**
+	 * Removes the annotations of a term and all its subterms. Returns the
+	 * term itself if nothing is annotated.
+	 */
+	public static IStrategoTerm stripAnnotations(ITermFactory factory,
+			IStrategoTerm term) {
+		int arity = term.getSubtermCount();
+		IStrategoTerm[] args = new IStrategoTerm[arity];
+		boolean changed = false;
+		for (int i = 0; i < arity; i++) {
+			args[i] = stripAnnotations(factory, term.getSubterm(i));
+			changed |= args[i] != term.getSubterm(i);
+		}
+		if (!changed)
+			return term.getAnnotations().isEmpty() ? term : factory
+					.annotateTerm(term, factory.makeList());
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			return factory.makeAppl(((IStrategoAppl) term).getConstructor(),
+					args);
+		case IStrategoTerm.LIST:
+			return factory.makeList(args);
+		case IStrategoTerm.TUPLE:
+			return factory.makeTuple(args);
+		default:
+			return factory.annotateTerm(term, factory.makeList());
+		}
+	}
+
+	/**
+	 * Returns the SHA-1 hash of a string in hexadecimal notation.
+	 */
+	public static String digest(String s) {
+		return digest(s.getBytes(UTF8));
+	}
+
+	/**
+	 * Returns the SHA-1 hash of a byte array in hexadecimal notation.
+	 */
+	public static String digest(byte[] bytes) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] hash = md.digest(bytes);
+		StringBuilder sb = new StringBuilder(2 * hash.length);
+		for (byte b : hash)
+			sb.append(String.format("%02x", b & 0xff));
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the SHA-1 hash of a version string and the names and contents
+	 * of the given files. Directories contribute all files below them in
+	 * name order.
+	 */
+	public static String digest(String version, File... files) {
+		StringBuilder text = new StringBuilder(version);
+		for (File f : files)
+			appendContents(text, f);
+		return digest(text.toString());
+	}
+
+	private static void appendContents(StringBuilder text, File f) {
+		if (f.isDirectory()) {
+			File[] children = f.listFiles();
+			if (children == null)
+				return;
+			Arrays.sort(children);
+			for (File child : children)
+				appendContents(text, child);
+		} else if (f.isFile()) {
+			try {
+				byte[] contents = Files.readAllBytes(f.toPath());
+				text.append('\n').append(f.getName()).append('\n')
+						.append(new String(contents, UTF8));
+			} catch (IOException e) {
+				text.append('\n').append(f.getName());
+			}
+		}
+	}
+}
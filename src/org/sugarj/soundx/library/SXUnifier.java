@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoReal;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+
+/**
+ * Syntactic unification of SoundX terms. Metavariables are bound in a
+ * triangular substitution, that is, bound terms are not substituted eagerly
+ * but dereferenced when they are visited. The unifier processes the pairs in
+ * the same order as the original Stratego implementation, so it binds the
+ * same variables and reports the same failures.
+ *
+ * A failure is reported as a reason term; the corresponding message is only
+ * built in Stratego when it is needed (sx-unify-failure-message).
+ */
+public class SXUnifier {
+	private final ITermFactory factory;
+
+	/** Unification variables or rigid variables if rigid is set. */
+	private final Set<IStrategoTerm> vars;
+
+	/** True if all variables except those in vars are unification variables. */
+	private final boolean rigid;
+
+	/** The triangular substitution in binding order. */
+	private final Map<IStrategoTerm, IStrategoTerm> bindings = new LinkedHashMap<IStrategoTerm, IStrategoTerm>();
+
+	/** Fully resolved terms of the current resolution. */
+	private final Map<IStrategoTerm, IStrategoTerm> resolved = new IdentityHashMap<IStrategoTerm, IStrategoTerm>();
+
+	private IStrategoTerm failure;
+
+	public SXUnifier(ITermFactory factory, Set<IStrategoTerm> vars,
+			boolean rigid) {
+		this.factory = factory;
+		this.vars = vars;
+		this.rigid = rigid;
+	}
+
+	private boolean isUnificationVar(IStrategoTerm var) {
+		return vars.contains(var) != rigid;
+	}
+
+	/**
+	 * Dereferences bound metavariables.
+	 */
+	private IStrategoTerm walk(IStrategoTerm term) {
+		while (SXTerms.isMetaVar(term)) {
+			IStrategoTerm bound = bindings.get(term);
+			if (bound == null)
+				break;
+			term = bound;
+		}
+		return term;
+	}
+
+	/**
+	 * Unifies the pairs of terms from left to right. Returns false and sets
+	 * the failure reason if unification is not possible.
+	 */
+	public boolean unify(IStrategoTerm[] lefts, IStrategoTerm[] rights) {
+		List<IStrategoTerm> stack = new ArrayList<IStrategoTerm>();
+		for (int i = lefts.length - 1; i >= 0; i--) {
+			stack.add(rights[i]);
+			stack.add(lefts[i]);
+		}
+
+		while (!stack.isEmpty()) {
+			IStrategoTerm expr1 = walk(stack.remove(stack.size() - 1));
+			IStrategoTerm expr2 = walk(stack.remove(stack.size() - 1));
+			boolean isVar1 = SXTerms.isMetaVar(expr1);
+			boolean isVar2 = SXTerms.isMetaVar(expr2);
+
+			if (isVar1 && isVar2) {
+				if (expr1.equals(expr2))
+					continue;
+				if (isUnificationVar(expr1))
+					bindings.put(expr1, expr2);
+				else if (isUnificationVar(expr2))
+					bindings.put(expr2, expr1);
+				else
+					return fail("SXUnifyVarsFailure");
+			} else if (isVar1 || isVar2) {
+				IStrategoTerm var = isVar1 ? expr1 : expr2;
+				IStrategoTerm expr = isVar1 ? expr2 : expr1;
+				if (!isUnificationVar(var))
+					return fail("SXUnifyNoVarFailure", var);
+				if (occurs(var, expr, new IdentityHashMap<IStrategoTerm, Boolean>()))
+					return fail("SXUnifyOccursFailure");
+				bindings.put(var, expr);
+			} else {
+				if (!sameConstructorName(expr1, expr2))
+					return fail("SXUnifyConsFailure", expr1, expr2);
+				int arity = expr1.getSubtermCount();
+				if (arity != expr2.getSubtermCount())
+					return fail("SXUnifyArityFailure");
+				for (int i = arity - 1; i >= 0; i--) {
+					stack.add(expr2.getSubterm(i));
+					stack.add(expr1.getSubterm(i));
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the constructor names as returned by c#(args) in Stratego.
+	 */
+	static boolean sameConstructorName(IStrategoTerm expr1,
+			IStrategoTerm expr2) {
+		int type = expr1.getTermType();
+		if (type != expr2.getTermType())
+			return false;
+
+		switch (type) {
+		case IStrategoTerm.APPL:
+			return ((IStrategoAppl) expr1).getConstructor().getName()
+					.equals(((IStrategoAppl) expr2).getConstructor().getName());
+		case IStrategoTerm.STRING:
+			return ((IStrategoString) expr1).stringValue().equals(
+					((IStrategoString) expr2).stringValue());
+		case IStrategoTerm.INT:
+			return ((IStrategoInt) expr1).intValue() == ((IStrategoInt) expr2)
+					.intValue();
+		case IStrategoTerm.REAL:
+			return ((IStrategoReal) expr1).realValue() == ((IStrategoReal) expr2)
+					.realValue();
+		case IStrategoTerm.LIST:
+		case IStrategoTerm.TUPLE:
+			return true;
+		default:
+			return expr1.equals(expr2);
+		}
+	}
+
+	private boolean occurs(IStrategoTerm var, IStrategoTerm term,
+			Map<IStrategoTerm, Boolean> visited) {
+		term = walk(term);
+		if (term.equals(var))
+			return true;
+		if (visited.put(term, Boolean.TRUE) != null)
+			return false;
+		for (IStrategoTerm sub : term.getAllSubterms())
+			if (occurs(var, sub, visited))
+				return true;
+		return false;
+	}
+
+	private boolean fail(String reason, IStrategoTerm... args) {
+		failure = factory.makeAppl(factory.makeConstructor(reason, args.length),
+				args);
+		return false;
+	}
+
+	/**
+	 * Returns SXUnificationFailure(reason) after a failed unification.
+	 */
+	public IStrategoTerm getFailure() {
+		return factory.makeAppl(
+				factory.makeConstructor("SXUnificationFailure", 1), failure);
+	}
+
+	/**
+	 * Applies the substitution to a term.
+	 */
+	public IStrategoTerm resolve(IStrategoTerm term) {
+		IStrategoTerm result = resolved.get(term);
+		if (result != null)
+			return result;
+
+		if (SXTerms.isMetaVar(term)) {
+			IStrategoTerm bound = bindings.get(term);
+			result = bound == null ? term : resolve(bound);
+		} else if (term.getSubtermCount() == 0) {
+			result = term;
+		} else {
+			IStrategoTerm[] args = term.getAllSubterms();
+			IStrategoTerm[] args1 = null;
+			for (int i = 0; i < args.length; i++) {
+				IStrategoTerm arg1 = resolve(args[i]);
+				if (arg1 != args[i]) {
+					if (args1 == null)
+						args1 = args.clone();
+					args1[i] = arg1;
+				}
+			}
+			result = args1 == null ? term : rebuild(term, args1);
+		}
+		resolved.put(term, result);
+		return result;
+	}
+
+	private IStrategoTerm rebuild(IStrategoTerm term, IStrategoTerm[] args) {
+		switch (term.getTermType()) {
+		case IStrategoTerm.APPL:
+			return factory.makeAppl(((IStrategoAppl) term).getConstructor(),
+					args, term.getAnnotations());
+		case IStrategoTerm.LIST:
+			return factory.makeList(args, term.getAnnotations());
+		case IStrategoTerm.TUPLE:
+			return factory.makeTuple(args, term.getAnnotations());
+		default:
+			return term;
+		}
+	}
+
+	/**
+	 * Returns the idempotent most general unifier.
+	 */
+	public SXSubstitution getSubstitution() {
+		SXSubstitution sub = SXSubstitution.EMPTY;
+		for (IStrategoTerm var : bindings.keySet())
+			sub = sub.extend(var, resolve(var));
+		return sub;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Unifies a pair or a list of pairs of terms. The term argument is the list
+ * of unification variables. If the primitive is rigid, the term argument
+ * contains the variables that must not be bound and all others are
+ * unification variables.
+ *
+ * The result is the most general unifier or SXUnificationFailure(reason).
+ */
+public class SXUnifyPrimitive extends AbstractPrimitive {
+	private final boolean rigid;
+
+	public SXUnifyPrimitive(String name, boolean rigid) {
+		super(name, 0, 1);
+		this.rigid = rigid;
+	}
+
+	@Override
+	public boolean call(IContext env, Strategy[] svars, IStrategoTerm[] tvars)
+			throws InterpreterException {
+		IStrategoTerm current = env.current();
+		IStrategoTerm[] lefts;
+		IStrategoTerm[] rights;
+		if (current.getTermType() == IStrategoTerm.LIST) {
+			int n = current.getSubtermCount();
+			lefts = new IStrategoTerm[n];
+			rights = new IStrategoTerm[n];
+			for (int i = 0; i < n; i++) {
+				IStrategoTerm pair = current.getSubterm(i);
+				if (pair.getTermType() != IStrategoTerm.TUPLE
+						|| pair.getSubtermCount() != 2)
+					return false;
+				lefts[i] = pair.getSubterm(0);
+				rights[i] = pair.getSubterm(1);
+			}
+		} else if (current.getTermType() == IStrategoTerm.TUPLE
+				&& current.getSubtermCount() == 2) {
+			lefts = new IStrategoTerm[] { current.getSubterm(0) };
+			rights = new IStrategoTerm[] { current.getSubterm(1) };
+		} else
+			return false;
+
+		Set<IStrategoTerm> vars = new HashSet<IStrategoTerm>(
+				Arrays.asList(tvars[0].getAllSubterms()));
+		SXUnifier unifier = new SXUnifier(env.getFactory(), vars, rigid);
+		if (unifier.unify(lefts, rights))
+			env.setCurrent(unifier.getSubstitution());
+		else
+			env.setCurrent(unifier.getFailure());
+		return true;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015, TU Berlin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ * - Neither the name of the TU Berlin nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.sugarj.soundx.library;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.spoofax.interpreter.library.AbstractStrategoOperatorRegistry;
+import org.strategoxt.HybridInterpreter;
+import org.strategoxt.lang.Context;
+
+/**
+ * Java primitives of the SoundX inference engine. The library keeps
+ * per-interpreter state like the inference rule indices, so each interpreter
+ * gets its own instance. Interpreters created for parallel tasks share the
+ * library of the interpreter they were created from, so its state must be
+ * thread-safe.
+ */
+public class SoundXLibrary extends AbstractStrategoOperatorRegistry {
+	public static final String REGISTRY_NAME = "SOUNDX";
+
+	/** Indices of the inference rule lists used by the inference engines. */
+	private final SXRuleIndexCache ruleIndices = new SXRuleIndexCache();
+
+	/** Answers of the depth-first engine in tabling mode. */
+	private final SXAnswerTable answerTable = new SXAnswerTable();
+
+	/** Derivations of declaration goals, kept across analyses. */
+	private final SXGoalCache goalCache = new SXGoalCache(this);
+
+	/** Numbers reserved for fresh metavariables in the current analysis. */
+	private final AtomicInteger freshNumbers = new AtomicInteger();
+
+	/** The interpreter the library is registered with. */
+	private volatile HybridInterpreter interpreter;
+
+	public SoundXLibrary() {
+		add(new SXRuleIndexCandidatesPrimitive(this));
+		add(new SXRuleByNamePrimitive(this));
+		add(new SXRuleIndexClearPrimitive(this));
+		add(new SXUnifyPrimitive("SUGARJ_sx_unify", false));
+		add(new SXUnifyPrimitive("SUGARJ_sx_unify_except", true));
+		add(new SXInstantiateRulePrimitive("SUGARJ_sx_instantiate_rule",
+				this, false));
+		add(new SXInstantiateRulePrimitive(
+				"SUGARJ_sx_instantiate_rule_scheduled", this, true));
+		add(new SXRestorePremiseOrderPrimitive());
+		add(new SXResetFreshPrimitive(this));
+		SXSubstitutionPrimitive.addTo(this);
+		SXTablePrimitives.addTo(this);
+		SXBfsPrimitives.addTo(this);
+		add(new SXParallelMapPrimitive(this));
+		SXClassificationCachePrimitives.addTo(this);
+		SXGoalCachePrimitives.addTo(this);
+		SXEnvironmentPrimitive.addTo(this);
+		add(new SXHeapReportPrimitive());
+		SXInterfaceCachePrimitives.addTo(this);
+	}
+
+	@Override
+	public String getOperatorRegistryName() {
+		return REGISTRY_NAME;
+	}
+
+	public SXRuleIndexCache getRuleIndices() {
+		return ruleIndices;
+	}
+
+	public SXAnswerTable getAnswerTable() {
+		return answerTable;
+	}
+
+	public SXGoalCache getGoalCache() {
+		return goalCache;
+	}
+
+	/**
+	 * Reserves count numbers for fresh metavariables and returns the first.
+	 * Fresh metavariable i is SXMetaVarGen(name, -(base + i + 1)), so the
+	 * numbers must stay below Integer.MAX_VALUE.
+	 */
+	public int reserveFreshNumbers(int count) {
+		while (true) {
+			int base = freshNumbers.get();
+			if (base > Integer.MAX_VALUE - count)
+				throw new IllegalStateException(
+						"out of numbers for fresh metavariables");
+			if (freshNumbers.compareAndSet(base, base + count))
+				return base;
+		}
+	}
+
+	/**
+	 * Restarts the numbering of fresh metavariables for a new analysis.
+	 */
+	public void resetFreshNumbers() {
+		freshNumbers.set(0);
+	}
+
+	/**
+	 * Returns the interpreter the library is registered with. Used to create
+	 * interpreters for parallel tasks.
+	 */
+	public HybridInterpreter getInterpreter() {
+		return interpreter;
+	}
+
+	/**
+	 * Registers the SoundX primitives with an interpreter unless they are
+	 * already registered.
+	 *
+	 * @param interp
+	 *            the interpreter running the SoundX Stratego code
+	 */
+	public static void register(HybridInterpreter interp) {
+		if (interp == null)
+			return;
+
+		Context ctx = interp.getCompiledContext();
+		SoundXLibrary library = (SoundXLibrary) ctx
+				.getOperatorRegistry(REGISTRY_NAME);
+		if (library == null) {
+			library = new SoundXLibrary();
+			ctx.addOperatorRegistry(library);
+		}
+		library.interpreter = interp;
+	}
+}